@@ -0,0 +1,116 @@
+package me.eranik.threads;
+
+import java.util.LinkedList;
+import java.util.function.Supplier;
+
+/**
+ * Original implementation of {@link ThreadPool} with busy-spinning workers and a single locked queue.
+ * It is kept only as a baseline for benchmarks, so continuations are left out and the ready flag is made volatile
+ * to make sure that waiting callers see it.
+ * @param <T> type of tasks' result
+ */
+class SpinningThreadPool<T> {
+
+    private int size;
+    private Thread threads[];
+    private LinkedList<ThreadPoolTask> tasks;
+
+    /**
+     * Constructs thread pool with specified number of threads.
+     * @param size number of threads in thread pool
+     */
+    SpinningThreadPool(int size) {
+        this.size = size;
+        this.threads = new Thread[size];
+        this.tasks = new LinkedList<>();
+
+        for (int i = 0; i < size; i++) {
+            this.threads[i] = new Thread(new ThreadPoolWorker());
+            this.threads[i].setDaemon(true);
+            this.threads[i].start();
+        }
+    }
+
+    /**
+     * Finishes all threads in thread pool.
+     */
+    synchronized void shutdown() {
+        for (int i = 0; i < size; i++) {
+            threads[i].interrupt();
+        }
+    }
+
+    /**
+     * Receives a task and passes it to a free thread for processing.
+     * @param task specified task to be processed
+     * @return special object that stores this task and through which you can interact with thread pool
+     */
+    synchronized ThreadPoolTask addTask(Supplier<T> task) {
+        ThreadPoolTask wrapper = new ThreadPoolTask(task);
+        tasks.add(wrapper);
+        return wrapper;
+    }
+
+    /**
+     * Describes tasks that are processed by thread pool.
+     */
+    class ThreadPoolTask {
+
+        private Supplier<T> task;
+        private volatile boolean ready = false;
+        private Object result = null;
+
+        private ThreadPoolTask(Supplier<T> task) {
+            this.task = task;
+        }
+
+        boolean isReady() {
+            return ready;
+        }
+
+        @SuppressWarnings("unchecked")
+        T get() {
+            while (!ready) {
+                Thread.yield();
+            }
+            if (result instanceof RuntimeException) {
+                throw (RuntimeException) result;
+            }
+            return (T) result;
+        }
+
+        private void run() {
+            result = task.get();
+        }
+    }
+
+    /**
+     * Describes job that is used by threads inside thread pool.
+     */
+    private class ThreadPoolWorker implements Runnable {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            while (!Thread.interrupted()) {
+                ThreadPoolTask task;
+                synchronized (SpinningThreadPool.this) {
+                    if (tasks.isEmpty()) {
+                        continue;
+                    }
+                    task = tasks.remove();
+                }
+                if (task != null) {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        task.result = e;
+                    }
+                    task.ready = true;
+                }
+            }
+        }
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,132 @@
+package me.eranik.threads;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Compares {@link ThreadPool} with its original busy-spinning implementation: latency of a single task
+ * submitted to an idle pool, throughput of many small tasks, and slowdown of work done outside
+ * of an idle pool, which shows how much CPU idle workers take from the rest of the process.
+ * The elastic pool starts with one thread and grows up to the same number of threads as the others.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThreadPoolBenchmark {
+
+    /**
+     * Number of tasks submitted at once in the fan-out benchmark.
+     */
+    private static final int FAN_OUT = 1000;
+
+    /**
+     * Common interface of the compared pools.
+     */
+    private interface Pool {
+        Callable<Integer> submit(Supplier<Integer> task);
+
+        void shutdown();
+    }
+
+    @State(Scope.Benchmark)
+    public static class PoolState {
+
+        /**
+         * Compared implementation.
+         */
+        @Param({"work-stealing", "elastic", "spinning"})
+        public String implementation;
+
+        /**
+         * Number of threads in the pool.
+         */
+        @Param({"2", "8"})
+        public int threads;
+
+        /**
+         * Amount of work done by each task in units of {@link Blackhole#consumeCPU}.
+         */
+        @Param({"0", "1000"})
+        public int tokens;
+
+        private Pool pool;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            if (implementation.equals("spinning")) {
+                SpinningThreadPool<Integer> spinning = new SpinningThreadPool<>(threads);
+                pool = new Pool() {
+                    @Override
+                    public Callable<Integer> submit(Supplier<Integer> task) {
+                        return spinning.addTask(task)::get;
+                    }
+
+                    @Override
+                    public void shutdown() {
+                        spinning.shutdown();
+                    }
+                };
+            } else {
+                ThreadPool<Integer> stealing = implementation.equals("elastic")
+                        ? new ThreadPool<>(1, threads, 1, TimeUnit.SECONDS)
+                        : new ThreadPool<>(threads);
+                pool = new Pool() {
+                    @Override
+                    public Callable<Integer> submit(Supplier<Integer> task) {
+                        return stealing.addTask(task)::get;
+                    }
+
+                    @Override
+                    public void shutdown() {
+                        stealing.shutdown();
+                    }
+                };
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int roundTrip(PoolState state) throws Exception {
+        int tokens = state.tokens;
+        return state.pool.submit(() -> {
+            Blackhole.consumeCPU(tokens);
+            return 1;
+        }).call();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FAN_OUT)
+    public int fanOut(PoolState state) throws Exception {
+        int tokens = state.tokens;
+        @SuppressWarnings("unchecked")
+        Callable<Integer>[] results = new Callable[FAN_OUT];
+        for (int i = 0; i < FAN_OUT; i++) {
+            final int j = i;
+            results[i] = state.pool.submit(() -> {
+                Blackhole.consumeCPU(tokens);
+                return j;
+            });
+        }
+        int sum = 0;
+        for (Callable<Integer> result : results) {
+            sum += result.call();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void workBesideIdlePool(PoolState state) {
+        Blackhole.consumeCPU(100_000);
+    }
+}
@@ -0,0 +1,30 @@
+package me.eranik.threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Future of task that returns {@code double}. Result is stored without boxing; it is boxed only when it is
+ * taken with {@link #get()} or passed to a continuation.
+ */
+public interface DoubleLightFuture extends LightFuture<Double> {
+
+    /**
+     * Waits until task processing is completed and returns its result without boxing.
+     * @return task result
+     * @throws LightExecutionException if exception occurred during task processing
+     */
+    double getAsDouble() throws LightExecutionException;
+
+    /**
+     * Waits at most the specified time until task processing is completed and returns its result without boxing.
+     * @param timeout maximum time to wait
+     * @param unit unit of the timeout
+     * @return task result
+     * @throws InterruptedException if the thread was interrupted while waiting
+     * @throws LightExecutionException if exception occurred during task processing
+     * @throws TimeoutException if task was not processed in time
+     */
+    double getAsDouble(long timeout, TimeUnit unit)
+            throws InterruptedException, LightExecutionException, TimeoutException;
+}
@@ -1,5 +1,8 @@
 package me.eranik.threads;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 
 /**
@@ -9,25 +12,77 @@ import java.util.function.Function;
 public interface LightFuture<T> {
 
     /**
-     * Checks if task is already processed or not
+     * Checks if task is already processed or not. May be called from any thread; if it returns {@code true},
+     * the result of task is visible to the calling thread.
      * @return {@code true} if task is already processed by thread pool; {@code false} otherwise
      */
     boolean isReady();
 
     /**
-     * Waits until task processing is completed and returns its result.
+     * Attempts to cancel the task. Task that is not started yet is never run; task that is running
+     * may be interrupted. Cancelled task fails with {@link java.util.concurrent.CancellationException},
+     * and so do tasks that depend on it and are not processed yet.
+     * @param mayInterruptIfRunning whether the thread that runs the task should be interrupted
+     * @return {@code true} if the task was cancelled; {@code false} if it was already completed
+     */
+    boolean cancel(boolean mayInterruptIfRunning);
+
+    /**
+     * Checks if the task was cancelled, either by {@link #cancel}, because a task it depends on was cancelled,
+     * or because the pool was stopped before the task started.
+     * @return {@code true} if the task failed with {@link java.util.concurrent.CancellationException};
+     * {@code false} otherwise
+     */
+    boolean isCancelled();
+
+    /**
+     * Waits until task processing is completed and returns its result. Waiting thread is parked
+     * and does not consume CPU. If the thread is interrupted while waiting, it keeps waiting
+     * and its interrupted status is restored before return.
      * @return task result
      * @throws LightExecutionException if exception occurred during task processing
      */
     T get() throws LightExecutionException;
 
+    /**
+     * Waits at most the specified time until task processing is completed and returns its result.
+     * @param timeout maximum time to wait
+     * @param unit unit of the timeout
+     * @return task result
+     * @throws InterruptedException if the thread was interrupted while waiting
+     * @throws LightExecutionException if exception occurred during task processing
+     * @throws TimeoutException if task was not processed in time
+     */
+    T get(long timeout, TimeUnit unit) throws InterruptedException, LightExecutionException, TimeoutException;
 
     /**
-     * Applies function to the result of task.
+     * Applies function to the result of task. Function is processed by thread pool only after the task is
+     * processed, so no thread waits for it. If the task fails, returned future fails with the same exception.
      * @param function specified function
+     * @param <R> type of function's result
      * @return result of application of specified function to the result of current task
      */
-    LightFuture<T> thenApply(Function<T, T> function);
+    <R> LightFuture<R> thenApply(Function<? super T, ? extends R> function);
+
+    /**
+     * Applies function that starts another asynchronous computation to the result of task.
+     * @param function function that returns future of the next computation
+     * @param <R> type of the next computation's result
+     * @return future that is completed with the outcome of the future returned by function
+     */
+    <R> LightFuture<R> thenCompose(Function<? super T, ? extends LightFuture<R>> function);
+
+    /**
+     * Applies function to the results of this task and another one after both of them are processed.
+     * If any of them fails, returned future fails with the same exception.
+     * @param other another task
+     * @param function function of two results
+     * @param <U> type of another task's result
+     * @param <R> type of function's result
+     * @return result of application of specified function to the results of both tasks
+     */
+    <U, R> LightFuture<R> thenCombine(LightFuture<? extends U> other,
+                                      BiFunction<? super T, ? super U, ? extends R> function);
 
     /**
      * Exception that is thrown if some error occurred when executing task.
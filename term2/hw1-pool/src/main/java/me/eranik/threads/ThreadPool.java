@@ -1,65 +1,856 @@
 package me.eranik.threads;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+import java.util.function.DoubleSupplier;
 import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
 import java.util.function.Supplier;
 
 /**
  * Thread pool that can take tasks and process them.
- * @param <T> type of tasks' result
+ * <p>
+ * Tasks added from outside of the pool are put to the shared submission queue, tasks added by workers
+ * are put to their own deques. Worker takes tasks from its own deque first, then from the submission queue,
+ * and then steals them from the other end of deques of other workers. All queues are lock-free.
+ * Workers that find no tasks are parked until a new task is added.
+ * <p>
+ * Pool may be elastic: it keeps the core number of workers and starts more of them, up to the maximum,
+ * while tasks are queued and no worker is idle. Workers above the core number finish once they have been
+ * idle for the keep-alive time. Starts and finishes of such workers are counted in {@link #getMetrics}.
+ * <p>
+ * Tasks may be added with a priority and a deadline. Such tasks are kept in a lock-free skip list ordered
+ * by priority and then by deadline. Tasks with priority above {@link #DEFAULT_PRIORITY} are taken before
+ * tasks added without priority, other ones are taken after them. Task which deadline passes while it is
+ * queued fails with {@link TimeoutException} instead of running late. Deadlines are watched by a separate
+ * thread, so such task fails as soon as its deadline passes even if all workers are busy.
+ * <p>
+ * Tasks created by {@link LightFuture#thenApply} and the like are processed by the pool of the future
+ * they depend on.
+ * <p>
+ * Tasks of any result type may be added to the same pool. Tasks that return {@code int}, {@code long}
+ * or {@code double} may be added with {@link #addIntTask}, {@link #addLongTask} and {@link #addDoubleTask},
+ * whose futures store results without boxing.
+ * @param <T> type of tasks' result; it is kept for compatibility and does not restrict types of added tasks
  */
 public class ThreadPool<T> {
 
-    private int size;
-    private Thread threads[];
-    private LinkedList<ThreadPoolTask> tasks;
+    /**
+     * Priority of tasks added without priority.
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private final int coreSize;
+    private final int maxSize;
+    private final long keepAliveNanos;
+    private volatile int growthThreshold = 0;
+    private volatile Thread threads[] = new Thread[0];
+    private volatile ThreadPoolWorker workers[];
+    private final ConcurrentLinkedQueue<ThreadPoolTask<?>> submissions = new ConcurrentLinkedQueue<>();
+    private final ConcurrentSkipListSet<PrioritizedTask> prioritized = new ConcurrentSkipListSet<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final DelayQueue<Expiry> deadlines = new DelayQueue<>();
+    private volatile Thread deadlineWatcher;
+    private final ConcurrentLinkedQueue<ThreadPoolWorker> idleWorkers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<ThreadPoolWorker> currentWorker = new ThreadLocal<>();
+    private final ThreadPoolMetrics metrics = new ThreadPoolMetrics();
+
+    /**
+     * Number of tasks that are queued or running. It becomes {@link #TERMINATED} once the pool is shut down
+     * and all tasks are processed, after which no task may be scheduled.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile boolean shutdown = false;
+    private volatile boolean stopped = false;
+
+    /**
+     * Number of started workers that did not finish yet. It is changed only while holding the monitor
+     * of the pool, together with {@link #workers} and {@link #threads}.
+     */
+    private volatile int liveWorkers;
+
+    private static final int TERMINATED = -1;
+
+    /**
+     * Constructs thread pool with one thread per available processor.
+     */
+    public ThreadPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
 
     /**
      * Constructs thread pool with specified number of threads.
      * @param size number of threads in thread pool
      */
     public ThreadPool(int size) {
-        this.size = size;
-        this.threads = new Thread[size];
-        this.tasks = new LinkedList<>();
+        this(size, size, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Constructs thread pool that starts {@code coreSize} threads at once and adds more threads, up to
+     * {@code maxSize}, while tasks wait in the queue and no thread is idle. Threads above the core size
+     * finish after they have been idle for the keep-alive time.
+     * @param coreSize number of threads that are kept even if they are idle
+     * @param maxSize maximum number of threads
+     * @param keepAlive time that threads above the core size may stay idle
+     * @param unit unit of the keep-alive time
+     * @throws IllegalArgumentException if sizes are negative, {@code maxSize} is zero or less than
+     * {@code coreSize}, or keep-alive time is negative
+     */
+    public ThreadPool(int coreSize, int maxSize, long keepAlive, TimeUnit unit) {
+        if (coreSize < 0 || maxSize <= 0 || maxSize < coreSize || keepAlive < 0) {
+            throw new IllegalArgumentException("Illegal thread pool configuration");
+        }
+        this.coreSize = coreSize;
+        this.maxSize = maxSize;
+        this.keepAliveNanos = unit.toNanos(keepAlive);
+        this.workers = newWorkerArray();
+        for (int i = 0; i < coreSize; i++) {
+            startWorker(false);
+        }
+    }
+
+    /**
+     * Sets number of queued tasks above which a new thread is started when all threads are busy.
+     * With the default value of zero, any task that has to wait starts a new thread until the maximum
+     * number of threads is reached. Has no effect on pools of fixed size.
+     * @param queueLength number of tasks that may wait without starting a new thread
+     * @throws IllegalArgumentException if the value is negative
+     */
+    public void setGrowthThreshold(int queueLength) {
+        if (queueLength < 0) {
+            throw new IllegalArgumentException("Negative growth threshold");
+        }
+        growthThreshold = queueLength;
+    }
+
+    /**
+     * Returns counters of threads of this pool, which are updated as the pool grows and shrinks.
+     * @return metrics of the pool
+     */
+    public ThreadPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stops accepting new tasks. Tasks that are already added, and tasks that depend on them, are still
+     * processed, after which all threads finish. Does not wait for that; use {@link #awaitTermination}.
+     */
+    public void shutdown() {
+        shutdown = true;
+        wakeUpIdleWorkers();
+        synchronized (this) {
+            if (liveWorkers == 0) {
+                stopDeadlineWatcher();
+            }
+            notifyAll();
+        }
+    }
 
-        for (int i = 0; i < size; i++) {
-            this.threads[i] = new Thread(new ThreadPoolWorker());
-            this.threads[i].setDaemon(true);
-            this.threads[i].start();
+    /**
+     * Stops accepting new tasks, removes all tasks that are not started yet and interrupts running ones.
+     * Removed tasks fail with {@link CancellationException}.
+     * @return futures of the removed tasks, except for those that were cancelled before
+     */
+    public synchronized List<LightFuture<?>> shutdownNow() {
+        shutdown = true;
+        stopped = true;
+        List<ThreadPoolTask<?>> removed = new ArrayList<>();
+        for (ThreadPoolTask<?> task = submissions.poll(); task != null; task = submissions.poll()) {
+            removed.add(task);
+        }
+        for (PrioritizedTask task = prioritized.pollFirst(); task != null; task = prioritized.pollFirst()) {
+            removed.add(task.task);
+        }
+        for (ThreadPoolWorker worker : workers) {
+            for (ThreadPoolTask<?> task = worker.tasks.poll(); task != null; task = worker.tasks.poll()) {
+                removed.add(task);
+            }
+        }
+        List<LightFuture<?>> dropped = new ArrayList<>();
+        for (ThreadPoolTask<?> task : removed) {
+            if (!task.isReady()) {
+                dropped.add(task);
+            }
+            drop(task);
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
         }
+        stopDeadlineWatcher();
+        return dropped;
     }
 
     /**
-     * Finishes all threads in thread pool.
+     * Waits until the pool is shut down and all its threads finish.
+     * @param timeout maximum time to wait
+     * @param unit unit of the timeout
+     * @return {@code true} if all threads finished; {@code false} if the timeout elapsed before
+     * @throws InterruptedException if the thread was interrupted while waiting
      */
-    public synchronized void shutdown() {
-        for (int i = 0; i < size; i++) {
-            threads[i].interrupt();
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
         }
+        return true;
+    }
+
+    /**
+     * Checks if the pool was shut down.
+     * @return {@code true} if the pool does not accept new tasks; {@code false} otherwise
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Checks if all threads finished after the pool was shut down.
+     * @return {@code true} if the pool is terminated; {@code false} otherwise
+     */
+    public boolean isTerminated() {
+        return shutdown && liveWorkers == 0;
     }
 
     /**
      * Receives a task and passes it to a free thread for processing.
      * @param task specified task to be processed
      * @return special object that stores this task and through which you can interact with thread pool
+     * @throws RejectedExecutionException if the pool is shut down
+     */
+    public <R> LightFuture<R> addTask(Supplier<R> task) {
+        checkAccepting();
+        ThreadPoolTask<R> wrapper = new ThreadPoolTask<>(this, task);
+        schedule(wrapper);
+        return wrapper;
+    }
+
+    /**
+     * Receives a task with the specified priority and passes it to a free thread for processing.
+     * Queued tasks with higher priority are processed first.
+     * @param task specified task to be processed
+     * @param priority priority of the task; tasks added without priority have {@link #DEFAULT_PRIORITY}
+     * @return special object that stores this task and through which you can interact with thread pool
+     * @throws RejectedExecutionException if the pool is shut down
+     */
+    public <R> LightFuture<R> addTask(Supplier<R> task, int priority) {
+        checkAccepting();
+        ThreadPoolTask<R> wrapper = new ThreadPoolTask<>(this, task);
+        schedule(new PrioritizedTask(wrapper, priority, false, 0));
+        return wrapper;
+    }
+
+    /**
+     * Receives a task with the specified priority and deadline and passes it to a free thread for processing.
+     * If no thread takes the task before the deadline, the task is not run and fails with {@link TimeoutException}.
+     * Among queued tasks of the same priority, the ones with earlier deadline are processed first.
+     * @param task specified task to be processed
+     * @param priority priority of the task; tasks added without priority have {@link #DEFAULT_PRIORITY}
+     * @param timeout time from now until the deadline
+     * @param unit unit of the timeout
+     * @return special object that stores this task and through which you can interact with thread pool
+     * @throws RejectedExecutionException if the pool is shut down
+     */
+    public <R> LightFuture<R> addTask(Supplier<R> task, int priority, long timeout, TimeUnit unit) {
+        checkAccepting();
+        ThreadPoolTask<R> wrapper = new ThreadPoolTask<>(this, task);
+        schedule(new PrioritizedTask(wrapper, priority, true, System.nanoTime() + unit.toNanos(timeout)));
+        return wrapper;
+    }
+
+    /**
+     * Receives a task that returns {@code int} and passes it to a free thread for processing.
+     * @param task specified task to be processed
+     * @return future that stores result of the task without boxing
+     * @throws RejectedExecutionException if the pool is shut down
+     */
+    public IntLightFuture addIntTask(IntSupplier task) {
+        checkAccepting();
+        IntTask wrapper = new IntTask(this, task);
+        schedule(wrapper);
+        return wrapper;
+    }
+
+    /**
+     * Receives a task that returns {@code long} and passes it to a free thread for processing.
+     * @param task specified task to be processed
+     * @return future that stores result of the task without boxing
+     * @throws RejectedExecutionException if the pool is shut down
+     */
+    public LongLightFuture addLongTask(LongSupplier task) {
+        checkAccepting();
+        LongTask wrapper = new LongTask(this, task);
+        schedule(wrapper);
+        return wrapper;
+    }
+
+    /**
+     * Receives a task that returns {@code double} and passes it to a free thread for processing.
+     * @param task specified task to be processed
+     * @return future that stores result of the task without boxing
+     * @throws RejectedExecutionException if the pool is shut down
      */
-    public synchronized LightFuture<T> addTask(Supplier<T> task) {
-        ThreadPoolTask wrapper = new ThreadPoolTask(task);
-        tasks.add(wrapper);
+    public DoubleLightFuture addDoubleTask(DoubleSupplier task) {
+        checkAccepting();
+        DoubleTask wrapper = new DoubleTask(this, task);
+        schedule(wrapper);
         return wrapper;
     }
 
     /**
-     * Describes tasks that are processed by thread pool.
+     * Receives a batch of tasks and passes them to free threads for processing. The whole batch is appended
+     * to the queue at once, so it costs a single synchronization however large it is.
+     * @param tasks specified tasks to be processed
+     * @param <R> type of tasks' result
+     * @return futures of the tasks in the same order
+     * @throws RejectedExecutionException if the pool is shut down
+     */
+    public <R> List<LightFuture<R>> addAll(Collection<? extends Supplier<R>> tasks) {
+        checkAccepting();
+        List<ThreadPoolTask<R>> batch = new ArrayList<>(tasks.size());
+        for (Supplier<R> task : tasks) {
+            batch.add(new ThreadPoolTask<>(this, task));
+        }
+        if (!reserve(batch.size())) {
+            for (ThreadPoolTask<R> task : batch) {
+                reject(task);
+            }
+            return new ArrayList<>(batch);
+        }
+        long now = System.nanoTime();
+        for (ThreadPoolTask<R> task : batch) {
+            task.queued = now;
+        }
+        ThreadPoolWorker worker = currentWorker.get();
+        Collection<ThreadPoolTask<?>> queue = worker != null ? worker.tasks : submissions;
+        queue.addAll(batch);
+        if (stopped) {
+            for (ThreadPoolTask<R> task : batch) {
+                if (queue.remove(task)) {
+                    drop(task);
+                }
+            }
+        }
+        int woken = 0;
+        while (woken < batch.size() && (signalIdleWorker() || grow())) {
+            woken++;
+        }
+        return new ArrayList<>(batch);
+    }
+
+    /**
+     * Processes all tasks and waits until all of them are processed.
+     * @param tasks specified tasks to be processed
+     * @param <R> type of tasks' result
+     * @return futures of the tasks in the same order, every one of them is ready
+     */
+    public <R> List<LightFuture<R>> invokeAll(Collection<? extends Supplier<R>> tasks) {
+        List<LightFuture<R>> futures = addAll(tasks);
+        for (LightFuture<R> future : futures) {
+            try {
+                future.get();
+            } catch (LightFuture.LightExecutionException ignored) {
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Processes tasks and returns result of the one that succeeds first. Other tasks are cancelled then:
+     * queued ones are not run and running ones are interrupted.
+     * @param tasks specified tasks to be processed
+     * @param <R> type of tasks' result
+     * @return result of the first successfully processed task
+     * @throws LightFuture.LightExecutionException if all tasks failed; its cause is the exception of the last one
+     * @throws IllegalArgumentException if there are no tasks
+     */
+    public <R> R invokeAny(Collection<? extends Supplier<R>> tasks) throws LightFuture.LightExecutionException {
+        if (tasks.isEmpty()) {
+            throw new IllegalArgumentException("No tasks to process");
+        }
+        List<LightFuture<R>> futures = addAll(tasks);
+        try {
+            LightFuture.LightExecutionException failure = null;
+            for (Iterator<LightFuture<R>> it = inCompletionOrder(futures); it.hasNext(); ) {
+                try {
+                    return it.next().get();
+                } catch (LightFuture.LightExecutionException e) {
+                    failure = e;
+                }
+            }
+            throw failure;
+        } finally {
+            for (LightFuture<R> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns iterator over the futures in order of their completion. Iterator waits for the next future
+     * to be ready, so processing of every result may start as soon as it is available.
+     * Futures of other implementations than thread pool are waited for by tasks of this pool.
+     * @param futures futures to iterate over
+     * @param <R> type of futures' result
+     * @return iterator that returns every future once it is ready
+     */
+    public <R> Iterator<LightFuture<R>> inCompletionOrder(Collection<? extends LightFuture<R>> futures) {
+        CompletionIterator<R> iterator = new CompletionIterator<>(futures.size());
+        for (LightFuture<R> future : futures) {
+            ThreadPoolTask<R> relay = new ThreadPoolTask<>(this, null);
+            relay.completeFrom(future);
+            relay.whenComplete(() -> iterator.completed.add(future));
+        }
+        return iterator;
+    }
+
+    private void checkAccepting() {
+        if (shutdown) {
+            throw new RejectedExecutionException("Thread pool is shut down");
+        }
+    }
+
+    /**
+     * Puts task to the deque of the current worker or to the submission queue and wakes up a parked worker,
+     * or starts a new one if there are none and the queue is long enough.
+     * Tasks that are scheduled after the pool is terminated fail with {@link RejectedExecutionException},
+     * and tasks that are scheduled while it is being stopped fail with {@link CancellationException}.
+     * @param task task to be processed
+     */
+    private void schedule(ThreadPoolTask<?> task) {
+        if (!reserve(1)) {
+            reject(task);
+            return;
+        }
+        task.queued = System.nanoTime();
+        ThreadPoolWorker worker = currentWorker.get();
+        if (worker != null) {
+            worker.tasks.addFirst(task);
+            if (stopped && worker.tasks.removeFirstOccurrence(task)) {
+                drop(task);
+            }
+        } else {
+            submissions.add(task);
+            if (stopped && submissions.remove(task)) {
+                drop(task);
+            }
+        }
+        if (!signalIdleWorker()) {
+            grow();
+        }
+    }
+
+    /**
+     * Puts prioritized task to the skip list and wakes up a parked worker or starts a new one.
+     * Deadline of the task is passed to the thread that watches deadlines.
+     * @param task task to be processed
+     */
+    private void schedule(PrioritizedTask task) {
+        if (!reserve(1)) {
+            reject(task.task);
+            return;
+        }
+        if (task.hasDeadline) {
+            task.expiry = new Expiry(task);
+        }
+        prioritized.add(task);
+        if (stopped && prioritized.remove(task)) {
+            drop(task.task);
+        } else if (task.expiry != null) {
+            deadlines.add(task.expiry);
+            startDeadlineWatcher();
+        }
+        if (!signalIdleWorker()) {
+            grow();
+        }
+    }
+
+    /**
+     * Starts the thread that watches deadlines unless it is running already or the pool is terminated.
+     */
+    private void startDeadlineWatcher() {
+        if (deadlineWatcher != null) {
+            return;
+        }
+        synchronized (this) {
+            if (deadlineWatcher != null || stopped || isTerminated()) {
+                return;
+            }
+            Thread watcher = new Thread(this::watchDeadlines);
+            watcher.setDaemon(true);
+            deadlineWatcher = watcher;
+            watcher.start();
+        }
+    }
+
+    private synchronized void stopDeadlineWatcher() {
+        if (deadlineWatcher != null) {
+            deadlineWatcher.interrupt();
+            deadlineWatcher = null;
+        }
+    }
+
+    /**
+     * Takes deadlines as they pass and fails tasks that are still queued, until the thread is interrupted.
+     */
+    private void watchDeadlines() {
+        try {
+            while (true) {
+                PrioritizedTask task = deadlines.take().task;
+                if (task != null && prioritized.remove(task)) {
+                    if (task.task.isReady()) {
+                        release();
+                    } else {
+                        expire(task, System.nanoTime());
+                    }
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Takes the queued prioritized task with the highest priority if it is not lower than the specified one.
+     * Tasks which deadline has passed are failed and skipped, cancelled tasks are skipped.
+     * @param minPriority the lowest priority of task that may be taken
+     * @return found task or {@code null} if there are no such tasks
+     */
+    private ThreadPoolTask<?> pollPrioritized(int minPriority) {
+        while (!prioritized.isEmpty()) {
+            PrioritizedTask first;
+            try {
+                first = prioritized.first();
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+            if (first.priority < minPriority) {
+                return null;
+            }
+            if (!prioritized.remove(first)) {
+                continue;
+            }
+            if (first.task.isReady()) {
+                release();
+                continue;
+            }
+            long now = System.nanoTime();
+            if (first.hasDeadline && now - first.deadline > 0) {
+                expire(first, now);
+                continue;
+            }
+            if (first.expiry != null) {
+                first.expiry.task = null;
+            }
+            metrics.queueWait(first.priority, now - first.added, false);
+            return first.task;
+        }
+        return null;
+    }
+
+    /**
+     * Fails prioritized task that was removed from the skip list after its deadline.
+     * @param task expired task
+     * @param now current value of {@link System#nanoTime}
+     */
+    private void expire(PrioritizedTask task, long now) {
+        metrics.queueWait(task.priority, now - task.added, true);
+        task.task.complete(null, new TimeoutException("Deadline of the task has passed"));
+        release();
+    }
+
+    /**
+     * Records time that task added without priority spent in the queue, unless it is cancelled already.
+     * @param task task taken from a queue or {@code null} if there was none
+     * @return the same task
+     */
+    private ThreadPoolTask<?> taken(ThreadPoolTask<?> task) {
+        if (task != null && !task.isReady()) {
+            metrics.queueWait(DEFAULT_PRIORITY, System.nanoTime() - task.queued, false);
+        }
+        return task;
+    }
+
+    /**
+     * Counts tasks as pending unless the pool is terminated already.
+     * @param count number of tasks
+     * @return {@code true} if the tasks may be queued; {@code false} if the pool is terminated
+     */
+    private boolean reserve(int count) {
+        while (true) {
+            int current = pending.get();
+            if (current == TERMINATED) {
+                return false;
+            }
+            if (pending.compareAndSet(current, current + count)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Stops counting task that is processed or removed from the queue.
+     */
+    private void release() {
+        if (pending.decrementAndGet() == 0 && shutdown) {
+            wakeUpIdleWorkers();
+        }
+    }
+
+    /**
+     * Checks whether all tasks are processed after shutdown and marks the pool terminated if so.
+     * @return {@code true} if workers should finish; {@code false} otherwise
+     */
+    private boolean isDrained() {
+        return stopped || shutdown && (pending.get() == TERMINATED || pending.compareAndSet(0, TERMINATED));
+    }
+
+    private void reject(ThreadPoolTask<?> task) {
+        task.complete(null, new RejectedExecutionException("Thread pool is terminated"));
+    }
+
+    /**
+     * Fails task that was removed from the queue before it started.
+     */
+    private void drop(ThreadPoolTask<?> task) {
+        task.complete(null, new CancellationException("Thread pool is stopped"));
+        release();
+    }
+
+    /**
+     * Wakes up all parked workers, so that they check whether the pool is shut down.
+     */
+    private void wakeUpIdleWorkers() {
+        for (ThreadPoolWorker worker : workers) {
+            if (worker.idle.compareAndSet(true, false)) {
+                LockSupport.unpark(worker.thread);
+            }
+        }
+    }
+
+    /**
+     * Starts a new worker if the pool may grow and there are more queued tasks than the growth threshold.
+     * The first worker of a pool that has no workers is started for any task.
+     * @return {@code true} if a worker was started; {@code false} otherwise
+     */
+    private boolean grow() {
+        int workers = liveWorkers;
+        if (workers >= maxSize) {
+            return false;
+        }
+        if (workers > 0 && pending.get() - running.get() <= growthThreshold) {
+            return false;
+        }
+        return startWorker(true);
+    }
+
+    /**
+     * Starts a new worker thread unless the pool has the maximum number of them or is stopped.
+     * @param scaling whether the worker is started because the queue grew rather than when the pool is created
+     * @return {@code true} if a worker was started; {@code false} otherwise
+     */
+    private synchronized boolean startWorker(boolean scaling) {
+        if (liveWorkers >= maxSize || stopped) {
+            return false;
+        }
+        ThreadPoolWorker worker = new ThreadPoolWorker();
+        Thread thread = new Thread(worker);
+        thread.setDaemon(true);
+        worker.thread = thread;
+
+        ThreadPoolWorker[] newWorkers = Arrays.copyOf(workers, workers.length + 1);
+        newWorkers[workers.length] = worker;
+        Thread[] newThreads = Arrays.copyOf(threads, threads.length + 1);
+        newThreads[threads.length] = thread;
+        workers = newWorkers;
+        threads = newThreads;
+        liveWorkers++;
+        if (scaling) {
+            metrics.scaledUp(liveWorkers);
+        } else {
+            metrics.workerStarted(liveWorkers);
+        }
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Finishes idle worker if the pool has more workers than its core size.
+     * @param worker worker which keep-alive time elapsed
+     * @return {@code true} if the worker should finish; {@code false} if it is still needed
+     */
+    private synchronized boolean retire(ThreadPoolWorker worker) {
+        if (liveWorkers <= coreSize) {
+            return false;
+        }
+        removeWorker(worker);
+        metrics.scaledDown(liveWorkers);
+        return true;
+    }
+
+    /**
+     * Removes finished worker and notifies callers of {@link #awaitTermination} when the last worker finishes.
+     */
+    private synchronized void workerFinished(ThreadPoolWorker worker) {
+        removeWorker(worker);
+        metrics.workerFinished(liveWorkers);
+    }
+
+    private void removeWorker(ThreadPoolWorker worker) {
+        int index = Arrays.asList(workers).indexOf(worker);
+        workers = without(workers, index);
+        threads = without(threads, index);
+        liveWorkers--;
+        if (liveWorkers == 0) {
+            if (shutdown) {
+                stopDeadlineWatcher();
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Creates empty array of workers. Workers are instances of inner class of the generic pool,
+     * so their array can be created only as a raw one.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ThreadPoolWorker[] newWorkerArray() {
+        return new ThreadPool.ThreadPoolWorker[0];
+    }
+
+    private static <E> E[] without(E[] array, int index) {
+        E[] result = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, index + 1, result, index, result.length - index);
+        return result;
+    }
+
+    /**
+     * Wakes up one of the parked workers if there is any.
+     * @return {@code true} if some worker was woken up; {@code false} if all workers are busy
+     */
+    private boolean signalIdleWorker() {
+        for (ThreadPoolWorker worker = idleWorkers.poll(); worker != null; worker = idleWorkers.poll()) {
+            if (worker.idle.compareAndSet(true, false)) {
+                LockSupport.unpark(worker.thread);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Iterator over futures that are added to its queue as they are completed.
+     * @param <R> type of futures' result
+     */
+    private static class CompletionIterator<R> implements Iterator<LightFuture<R>> {
+
+        private final BlockingQueue<LightFuture<R>> completed = new LinkedBlockingQueue<>();
+        private int remaining;
+
+        private CompletionIterator(int count) {
+            this.remaining = count;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        /**
+         * Waits until the next future is ready and returns it. If the thread is interrupted while waiting,
+         * it keeps waiting and its interrupted status is restored before return.
+         * @return the next completed future
+         */
+        @Override
+        public LightFuture<R> next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        LightFuture<R> future = completed.take();
+                        remaining--;
+                        return future;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Describes tasks that are processed by thread pool. Result is written before the volatile ready flag,
+     * so whoever sees the flag set sees the result too. Callers that wait for the result
+     * wait on the task's monitor and are notified when the task is completed.
+     * <p>
+     * Dependent tasks are registered on the task and are scheduled by the thread that completes it,
+     * so no worker waits for the result of another task. Task without supplier is completed
+     * only by another task it depends on.
+     * <p>
+     * Only the thread that moves the task to the {@link #DONE} state completes it. Cancelled task stays
+     * in its queue and is skipped by the worker that takes it, so it is removed in constant time.
+     * @param <V> type of task's result
      */
-    private class ThreadPoolTask implements LightFuture<T> {
+    private static class ThreadPoolTask<V> implements LightFuture<V> {
+
+        private static final int NEW = 0;
+        private static final int RUNNING = 1;
+        private static final int INTERRUPTING = 2;
+        private static final int DONE = 3;
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<ThreadPoolTask> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(ThreadPoolTask.class, "state");
 
-        private Supplier<T> task;
-        private boolean ready = false;
-        private Object result = null;
+        private final ThreadPool<?> pool;
+        private Supplier<? extends V> task;
+        private volatile int state = NEW;
+        private volatile Thread runner;
+        private volatile boolean ready = false;
+        private long queued;
+        private V result = null;
+        private Exception exception = null;
+        private List<Runnable> dependents = null;
 
-        private ThreadPoolTask(Supplier<T> task) {
+        private ThreadPoolTask(ThreadPool<?> pool, Supplier<? extends V> task) {
+            this.pool = pool;
             this.task = task;
         }
 
@@ -75,63 +866,631 @@ public class ThreadPool<T> {
          * {@inheritDoc}
          */
         @Override
-        @SuppressWarnings("unchecked")
-        public T get() throws LightExecutionException {
-            while (!ready) {
-                Thread.yield();
-            }
-            if (result instanceof Exception) {
-                throw new LightExecutionException((Exception) result);
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            while (true) {
+                int current = state;
+                if (current == INTERRUPTING || current == DONE) {
+                    return false;
+                }
+                boolean interrupt = mayInterruptIfRunning && current == RUNNING;
+                if (STATE.compareAndSet(this, current, interrupt ? INTERRUPTING : DONE)) {
+                    if (interrupt) {
+                        Thread thread = runner;
+                        if (thread != null) {
+                            thread.interrupt();
+                        }
+                        state = DONE;
+                    }
+                    publish(null, new CancellationException("Task was cancelled"));
+                    return true;
+                }
             }
-            return (T) result;
         }
 
         /**
          * {@inheritDoc}
          */
         @Override
-        public LightFuture<T> thenApply(Function<T, T> function) {
-            return ThreadPool.this.addTask(() -> {
+        public boolean isCancelled() {
+            return ready && exception instanceof CancellationException;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public V get() throws LightExecutionException {
+            await();
+            checkException();
+            return value();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public V get(long timeout, TimeUnit unit)
+                throws InterruptedException, LightExecutionException, TimeoutException {
+            await(timeout, unit);
+            checkException();
+            return value();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public <R> LightFuture<R> thenApply(Function<? super V, ? extends R> function) {
+            ThreadPoolTask<R> next = new ThreadPoolTask<>(pool, () -> function.apply(value()));
+            continueWith(next);
+            return next;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public <R> LightFuture<R> thenCompose(Function<? super V, ? extends LightFuture<R>> function) {
+            ThreadPoolTask<LightFuture<R>> step = new ThreadPoolTask<>(pool, () -> function.apply(value()));
+            ThreadPoolTask<R> next = new ThreadPoolTask<>(pool, null);
+            continueWith(step);
+            step.whenComplete(() -> {
+                if (step.exception != null) {
+                    next.complete(null, step.exception);
+                } else if (step.result == null) {
+                    next.complete(null, new NullPointerException("Function returned null instead of future"));
+                } else {
+                    next.completeFrom(step.result);
+                }
+            });
+            return next;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public <U, R> LightFuture<R> thenCombine(LightFuture<? extends U> other,
+                                                 BiFunction<? super V, ? super U, ? extends R> function) {
+            ThreadPoolTask<U> second = new ThreadPoolTask<>(pool, null);
+            second.completeFrom(other);
+            ThreadPoolTask<R> next = new ThreadPoolTask<>(pool, () -> function.apply(value(), second.value()));
+            whenComplete(() -> {
+                if (exception != null) {
+                    next.complete(null, exception);
+                } else {
+                    second.continueWith(next);
+                }
+            });
+            return next;
+        }
+
+        /**
+         * Waits until the task is completed. If the thread is interrupted while waiting, it keeps waiting
+         * and its interrupted status is restored before return.
+         */
+        void await() {
+            if (!ready) {
+                boolean interrupted = false;
+                synchronized (this) {
+                    while (!ready) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Waits at most the specified time until the task is completed.
+         */
+        void await(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+            if (!ready) {
+                long deadline = System.nanoTime() + unit.toNanos(timeout);
+                synchronized (this) {
+                    while (!ready) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            throw new TimeoutException();
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Throws exception of the completed task if it failed.
+         */
+        void checkException() throws LightExecutionException {
+            if (exception != null) {
+                throw new LightExecutionException(exception);
+            }
+        }
+
+        /**
+         * Returns result of the task that is completed successfully. Tasks that store primitive results
+         * box them here.
+         * @return result of the task
+         */
+        V value() {
+            return result;
+        }
+
+        /**
+         * Schedules the task after this one is processed successfully or fails it with the same exception.
+         * @param next dependent task
+         */
+        private void continueWith(ThreadPoolTask<?> next) {
+            whenComplete(() -> {
+                if (exception != null) {
+                    next.complete(null, exception);
+                } else if (!next.ready) {
+                    pool.schedule(next);
+                }
+            });
+        }
+
+        /**
+         * Completes this task with the outcome of the specified future once it is processed.
+         * Futures of thread pools are followed without blocking; other futures are waited for
+         * by a separate task.
+         * @param source future to take outcome from
+         */
+        private void completeFrom(LightFuture<? extends V> source) {
+            if (source instanceof ThreadPoolTask) {
+                ThreadPoolTask<? extends V> task = (ThreadPoolTask<? extends V>) source;
+                task.whenComplete(() -> complete(task.exception == null ? task.value() : null, task.exception));
+                return;
+            }
+            pool.schedule(new ThreadPoolTask<Void>(pool, () -> {
                 try {
-                    return function.apply(ThreadPoolTask.this.get());
+                    complete(source.get(), null);
                 } catch (LightExecutionException e) {
-                    throw new RuntimeException(e.getMessage(), e.getCause());
+                    complete(null, (Exception) e.getCause());
                 }
-            });
+                return null;
+            }));
+        }
+
+        /**
+         * Runs the action when the task is completed. If it is completed already, the action is run at once.
+         * @param action action to run
+         */
+        private void whenComplete(Runnable action) {
+            if (!ready) {
+                synchronized (this) {
+                    if (!ready) {
+                        if (dependents == null) {
+                            dependents = new ArrayList<>();
+                        }
+                        dependents.add(action);
+                        return;
+                    }
+                }
+            }
+            action.run();
+        }
+
+        /**
+         * Runs the task unless it was cancelled. Runner is published before the task is marked running,
+         * so whoever cancels the running task finds the thread to interrupt. If it is cancelled while running,
+         * waits until the interrupt is delivered, so that the worker may clear it before taking the next task.
+         */
+        final void execute() {
+            runner = Thread.currentThread();
+            if (!STATE.compareAndSet(this, NEW, RUNNING)) {
+                runner = null;
+                return;
+            }
+            try {
+                run();
+            } finally {
+                runner = null;
+                while (state == INTERRUPTING) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        void run() {
+            Supplier<? extends V> job = task;
+            task = null;
+            V value;
+            try {
+                value = job.get();
+            } catch (Exception e) {
+                complete(null, e);
+                return;
+            }
+            complete(value, null);
+        }
+
+        /**
+         * Completes the task unless it is completed or cancelled already.
+         * @param value result of the task
+         * @param failure exception that occurred during processing of the task or {@code null} if there was none
+         */
+        void complete(V value, Exception failure) {
+            while (true) {
+                int current = state;
+                if (current == INTERRUPTING || current == DONE) {
+                    return;
+                }
+                if (STATE.compareAndSet(this, current, DONE)) {
+                    publish(value, failure);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Publishes result of the task, wakes up all waiting callers and runs dependent actions.
+         */
+        private void publish(V value, Exception failure) {
+            result = value;
+            exception = failure;
+            List<Runnable> actions;
+            synchronized (this) {
+                ready = true;
+                notifyAll();
+                actions = dependents;
+                dependents = null;
+            }
+            if (actions != null) {
+                for (Runnable action : actions) {
+                    action.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Task that returns {@code int} and stores it without boxing.
+     */
+    private static class IntTask extends ThreadPoolTask<Integer> implements IntLightFuture {
+
+        private final IntSupplier task;
+        private int result;
+
+        private IntTask(ThreadPool<?> pool, IntSupplier task) {
+            super(pool, null);
+            this.task = task;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getAsInt() throws LightExecutionException {
+            await();
+            checkException();
+            return result;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getAsInt(long timeout, TimeUnit unit)
+                throws InterruptedException, LightExecutionException, TimeoutException {
+            await(timeout, unit);
+            checkException();
+            return result;
+        }
+
+        @Override
+        Integer value() {
+            return result;
+        }
+
+        @Override
+        void run() {
+            try {
+                result = task.getAsInt();
+            } catch (Exception e) {
+                complete(null, e);
+                return;
+            }
+            complete(null, null);
+        }
+    }
+
+    /**
+     * Task that returns {@code long} and stores it without boxing.
+     */
+    private static class LongTask extends ThreadPoolTask<Long> implements LongLightFuture {
+
+        private final LongSupplier task;
+        private long result;
+
+        private LongTask(ThreadPool<?> pool, LongSupplier task) {
+            super(pool, null);
+            this.task = task;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getAsLong() throws LightExecutionException {
+            await();
+            checkException();
+            return result;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getAsLong(long timeout, TimeUnit unit)
+                throws InterruptedException, LightExecutionException, TimeoutException {
+            await(timeout, unit);
+            checkException();
+            return result;
+        }
+
+        @Override
+        Long value() {
+            return result;
+        }
+
+        @Override
+        void run() {
+            try {
+                result = task.getAsLong();
+            } catch (Exception e) {
+                complete(null, e);
+                return;
+            }
+            complete(null, null);
+        }
+    }
+
+    /**
+     * Task that returns {@code double} and stores it without boxing.
+     */
+    private static class DoubleTask extends ThreadPoolTask<Double> implements DoubleLightFuture {
+
+        private final DoubleSupplier task;
+        private double result;
+
+        private DoubleTask(ThreadPool<?> pool, DoubleSupplier task) {
+            super(pool, null);
+            this.task = task;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public double getAsDouble() throws LightExecutionException {
+            await();
+            checkException();
+            return result;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public double getAsDouble(long timeout, TimeUnit unit)
+                throws InterruptedException, LightExecutionException, TimeoutException {
+            await(timeout, unit);
+            checkException();
+            return result;
+        }
+
+        @Override
+        Double value() {
+            return result;
+        }
+
+        @Override
+        void run() {
+            try {
+                result = task.getAsDouble();
+            } catch (Exception e) {
+                complete(null, e);
+                return;
+            }
+            complete(null, null);
+        }
+    }
+
+    /**
+     * Task in the skip list of prioritized tasks. Tasks are ordered by priority from the highest, then
+     * by deadline from the earliest, then in order they were added.
+     */
+    private class PrioritizedTask implements Comparable<PrioritizedTask> {
+
+        private final ThreadPoolTask<?> task;
+        private final int priority;
+        private final boolean hasDeadline;
+        private final long deadline;
+        private final long added = System.nanoTime();
+        private final long index = sequence.getAndIncrement();
+        private Expiry expiry;
+
+        PrioritizedTask(ThreadPoolTask<?> task, int priority, boolean hasDeadline, long deadline) {
+            this.task = task;
+            this.priority = priority;
+            this.hasDeadline = hasDeadline;
+            this.deadline = deadline;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            if (hasDeadline != other.hasDeadline) {
+                return hasDeadline ? -1 : 1;
+            }
+            if (hasDeadline && deadline != other.deadline) {
+                return Long.signum(deadline - other.deadline);
+            }
+            return Long.compare(index, other.index);
+        }
+    }
+
+    /**
+     * Deadline of the prioritized task in the queue of deadlines. Reference to the task is cleared when
+     * a worker takes it, so that the task is not kept in memory until its deadline.
+     */
+    private class Expiry implements Delayed {
+
+        private final long deadline;
+        private volatile PrioritizedTask task;
+
+        Expiry(PrioritizedTask task) {
+            this.deadline = task.deadline;
+            this.task = task;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
         }
 
-        private void run() {
-            result = task.get();
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
         }
     }
 
     /**
-     * Describes job that is used by threads inside thread pool.
+     * Describes job that is used by threads inside thread pool. Each worker owns a deque of tasks:
+     * it adds and takes its own tasks at the head, while other workers steal them from the tail.
      */
     private class ThreadPoolWorker implements Runnable {
+
+        private final ConcurrentLinkedDeque<ThreadPoolTask<?>> tasks = new ConcurrentLinkedDeque<>();
+        private final AtomicBoolean idle = new AtomicBoolean(false);
+        private Thread thread;
+        private boolean retired = false;
+
         /**
          * {@inheritDoc}
          */
         @Override
         public void run() {
-            while (!Thread.interrupted()) {
-                ThreadPoolTask task;
-                synchronized (ThreadPool.this) {
-                    if (tasks.isEmpty()) {
-                        continue;
+            currentWorker.set(this);
+            try {
+                while (!stopped && !retired) {
+                    ThreadPoolTask<?> task = findTask();
+                    if (task == null) {
+                        if (isDrained()) {
+                            break;
+                        }
+                        task = awaitTask();
+                    }
+                    if (task != null) {
+                        running.incrementAndGet();
+                        try {
+                            task.execute();
+                        } finally {
+                            running.decrementAndGet();
+                            release();
+                        }
+                        if (!stopped) {
+                            Thread.interrupted();
+                        }
                     }
-                    task = tasks.remove();
                 }
-                if (task != null) {
-                    try {
-                        task.run();
-                    } catch (Exception e) {
-                        task.result = e;
+            } finally {
+                if (retired) {
+                    if ((!submissions.isEmpty() || !prioritized.isEmpty()) && !signalIdleWorker()) {
+                        startWorker(true);
+                    }
+                } else {
+                    workerFinished(this);
+                }
+            }
+        }
+
+        /**
+         * Takes urgent prioritized task, task from own deque, from the submission queue, other prioritized task
+         * or task from deque of another worker, in this order.
+         * @return found task or {@code null} if there are no tasks
+         */
+        private ThreadPoolTask<?> findTask() {
+            ThreadPoolTask<?> task = pollPrioritized(DEFAULT_PRIORITY + 1);
+            if (task == null) {
+                task = taken(tasks.pollFirst());
+            }
+            if (task == null) {
+                task = taken(submissions.poll());
+            }
+            if (task == null) {
+                task = pollPrioritized(Integer.MIN_VALUE);
+            }
+            ThreadPoolWorker[] victims = workers;
+            int size = victims.length;
+            if (task == null && size > 1) {
+                int start = ThreadLocalRandom.current().nextInt(size);
+                for (int i = 0; i < size && task == null; i++) {
+                    ThreadPoolWorker victim = victims[(start + i) % size];
+                    if (victim != this) {
+                        task = taken(victim.tasks.pollLast());
                     }
-                    task.ready = true;
                 }
             }
+            return task;
+        }
+
+        /**
+         * Registers the worker as idle and parks it until it is signalled or the pool is shut down.
+         * Queues are checked once more after registration, so a task added concurrently is not missed.
+         * If the pool has more workers than its core size, the worker is parked for the keep-alive time
+         * at most and then retires.
+         * @return task that was added while registering or {@code null} if the worker was parked
+         */
+        private ThreadPoolTask<?> awaitTask() {
+            idle.set(true);
+            idleWorkers.add(this);
+            ThreadPoolTask<?> task = findTask();
+            if (task != null) {
+                if (idle.compareAndSet(true, false)) {
+                    idleWorkers.remove(this);
+                } else {
+                    signalIdleWorker();
+                }
+                return task;
+            }
+            long deadline = System.nanoTime() + keepAliveNanos;
+            while (idle.get() && !stopped && !isDrained()) {
+                if (liveWorkers <= coreSize) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    LockSupport.parkNanos(this, remaining);
+                } else if (idle.compareAndSet(true, false)) {
+                    idleWorkers.remove(this);
+                    retired = retire(this);
+                    return null;
+                }
+            }
+            idle.set(false);
+            return null;
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,246 @@
+package me.eranik.threads;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of worker threads and queued tasks of one pool. Events are recorded by the pool while
+ * it changes the set of its workers and takes tasks from the queue, all getters may be called from any thread.
+ */
+public class ThreadPoolMetrics {
+
+    /**
+     * Number of the latest scale events that are kept.
+     */
+    static final int MAX_EVENTS = 64;
+
+    private int workerCount;
+    private int largestWorkerCount;
+    private long scaleUpCount;
+    private long scaleDownCount;
+    private final Deque<ScaleEvent> events = new ArrayDeque<>();
+    private final ConcurrentMap<Integer, WaitCounter> waits = new ConcurrentHashMap<>();
+
+    synchronized void workerStarted(int workers) {
+        workerCount = workers;
+        largestWorkerCount = Math.max(largestWorkerCount, workers);
+    }
+
+    synchronized void workerFinished(int workers) {
+        workerCount = workers;
+    }
+
+    synchronized void scaledUp(int workers) {
+        workerStarted(workers);
+        scaleUpCount++;
+        addEvent(new ScaleEvent(true, workers));
+    }
+
+    synchronized void scaledDown(int workers) {
+        workerFinished(workers);
+        scaleDownCount++;
+        addEvent(new ScaleEvent(false, workers));
+    }
+
+    /**
+     * Records time that a task spent in the queue.
+     * @param priority priority of the task
+     * @param nanos time from adding of the task until a worker took it
+     * @param expired whether deadline of the task passed before it was taken
+     */
+    void queueWait(int priority, long nanos, boolean expired) {
+        WaitCounter counter = waits.get(priority);
+        if (counter == null) {
+            counter = waits.computeIfAbsent(priority, key -> new WaitCounter());
+        }
+        counter.count.increment();
+        counter.total.add(nanos);
+        if (nanos > counter.max.get()) {
+            counter.max.accumulateAndGet(nanos, Math::max);
+        }
+        if (expired) {
+            counter.expired.increment();
+        }
+    }
+
+    private void addEvent(@NotNull ScaleEvent event) {
+        if (events.size() == MAX_EVENTS) {
+            events.removeFirst();
+        }
+        events.addLast(event);
+    }
+
+    /**
+     * Returns number of running worker threads.
+     * @return number of workers
+     */
+    public synchronized int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Returns the largest number of worker threads that were running at the same time.
+     * @return peak number of workers
+     */
+    public synchronized int getLargestWorkerCount() {
+        return largestWorkerCount;
+    }
+
+    /**
+     * Returns number of threads started because the queue grew.
+     * @return number of scale-up events
+     */
+    public synchronized long getScaleUpCount() {
+        return scaleUpCount;
+    }
+
+    /**
+     * Returns number of threads finished because they were idle longer than keep-alive time.
+     * @return number of scale-down events
+     */
+    public synchronized long getScaleDownCount() {
+        return scaleDownCount;
+    }
+
+    /**
+     * Returns the latest scale events, at most {@value #MAX_EVENTS} of them.
+     * @return events from the oldest to the newest
+     */
+    @NotNull
+    public synchronized List<ScaleEvent> getScaleEvents() {
+        return new ArrayList<>(events);
+    }
+
+    /**
+     * Returns summaries of time that tasks spent in the queue. Tasks added without priority are counted
+     * under {@link ThreadPool#DEFAULT_PRIORITY}.
+     * @return summaries by priorities from the highest to the lowest
+     */
+    @NotNull
+    public Map<Integer, QueueWait> getQueueWaits() {
+        Map<Integer, QueueWait> summaries = new TreeMap<>(Collections.reverseOrder());
+        for (Map.Entry<Integer, WaitCounter> entry : waits.entrySet()) {
+            WaitCounter counter = entry.getValue();
+            long count = counter.count.sum();
+            summaries.put(entry.getKey(), new QueueWait(count, count == 0 ? 0 : (double) counter.total.sum() / count,
+                    counter.max.get(), counter.expired.sum()));
+        }
+        return summaries;
+    }
+
+    private static class WaitCounter {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final LongAdder expired = new LongAdder();
+    }
+
+    /**
+     * Summary of time that tasks of one priority spent in the queue.
+     */
+    public static class QueueWait {
+        private final long count;
+        private final double meanNanos;
+        private final long maxNanos;
+        private final long expiredCount;
+
+        QueueWait(long count, double meanNanos, long maxNanos, long expiredCount) {
+            this.count = count;
+            this.meanNanos = meanNanos;
+            this.maxNanos = maxNanos;
+            this.expiredCount = expiredCount;
+        }
+
+        /**
+         * Returns number of tasks taken from the queue, including expired ones.
+         * @return number of tasks
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns mean time in the queue.
+         * @return mean wait in nanoseconds
+         */
+        public double getMeanNanos() {
+            return meanNanos;
+        }
+
+        /**
+         * Returns the longest time in the queue.
+         * @return maximum wait in nanoseconds
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * Returns number of tasks that failed because their deadline passed while they were queued.
+         * @return number of expired tasks
+         */
+        public long getExpiredCount() {
+            return expiredCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d tasks, mean %.3f ms, max %.3f ms, %d expired",
+                    count, meanNanos / 1e6, maxNanos / 1e6, expiredCount);
+        }
+    }
+
+    /**
+     * Start or finish of one worker thread that changed size of the pool.
+     */
+    public static class ScaleEvent {
+        private final long timeMillis = System.currentTimeMillis();
+        private final boolean up;
+        private final int workerCount;
+
+        ScaleEvent(boolean up, int workerCount) {
+            this.up = up;
+            this.workerCount = workerCount;
+        }
+
+        /**
+         * Returns time of the event.
+         * @return value of {@link System#currentTimeMillis} when the event happened
+         */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        /**
+         * Checks direction of the event.
+         * @return {@code true} if a thread was started; {@code false} if a thread finished
+         */
+        public boolean isScaleUp() {
+            return up;
+        }
+
+        /**
+         * Returns number of workers after the event.
+         * @return number of workers
+         */
+        public int getWorkerCount() {
+            return workerCount;
+        }
+
+        @Override
+        public String toString() {
+            return (up ? "up" : "down") + " to " + workerCount + " at " + timeMillis;
+        }
+    }
+}
@@ -4,7 +4,20 @@ import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Supplier;
 
 import static me.eranik.threads.LightFuture.LightExecutionException;
@@ -74,7 +87,7 @@ class ThreadPoolTest {
 
     @Test
     @SuppressWarnings("unchecked")
-    void testShutdown() throws InterruptedException, NoSuchFieldException, IllegalAccessException {
+    void testShutdownNow() throws InterruptedException, NoSuchFieldException, IllegalAccessException {
         Supplier<String> job = () -> {
             while (true) {
                 Thread.yield();
@@ -97,13 +110,300 @@ class ThreadPoolTest {
             assertFalse(thread.isInterrupted());
         }
 
-        pool.shutdown();
+        pool.shutdownNow();
 
         for (Thread thread : (Thread[]) threads.get(pool)) {
             assertTrue(thread.isInterrupted());
         }
     }
 
+    @Test
+    void testShutdownDrainsQueue() throws Exception {
+        ThreadPool<Integer> pool = new ThreadPool<>(1);
+        CountDownLatch release = new CountDownLatch(1);
+        LightFuture<Integer> first = pool.addTask(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            return 1;
+        });
+        LightFuture<Integer> second = pool.addTask(() -> 2);
+        LightFuture<Integer> dependent = second.thenApply(i -> i + 1);
+
+        pool.shutdown();
+        assertTrue(pool.isShutdown());
+        assertThrows(RejectedExecutionException.class, () -> pool.addTask(() -> 4));
+        assertFalse(pool.awaitTermination(100, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(pool.isTerminated());
+        assertEquals(1, first.get().intValue());
+        assertEquals(2, second.get().intValue());
+        assertEquals(3, dependent.get().intValue());
+    }
+
+    @Test
+    void testShutdownNowDropsQueuedTasks() throws Exception {
+        ThreadPool<Integer> pool = new ThreadPool<>(1);
+        CountDownLatch started = new CountDownLatch(1);
+        LightFuture<Integer> running = pool.addTask(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                return -1;
+            }
+            return 1;
+        });
+        started.await();
+        LightFuture<Integer> queued = pool.addTask(() -> 2);
+        LightFuture<Integer> dependent = queued.thenApply(i -> i + 1);
+
+        List<LightFuture<?>> dropped = pool.shutdownNow();
+
+        assertEquals(Collections.singletonList(queued), dropped);
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(-1, running.get().intValue());
+        LightExecutionException e = assertThrows(LightExecutionException.class, queued::get);
+        assertTrue(e.getCause() instanceof CancellationException);
+        e = assertThrows(LightExecutionException.class, dependent::get);
+        assertTrue(e.getCause() instanceof CancellationException);
+    }
+
+    @Test
+    void testIdlePoolTerminates() throws InterruptedException {
+        ThreadPool<Integer> pool = new ThreadPool<>(4);
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testDefaultSize() {
+        ThreadPool<Integer> pool = new ThreadPool<>();
+        assertEquals(Runtime.getRuntime().availableProcessors(), pool.getMetrics().getWorkerCount());
+        pool.shutdown();
+    }
+
+    @Test
+    void testElasticPoolGrowsAndShrinks() throws Exception {
+        ThreadPool<Integer> pool = new ThreadPool<>(1, 4, 200, TimeUnit.MILLISECONDS);
+        ThreadPoolMetrics metrics = pool.getMetrics();
+        assertEquals(1, metrics.getWorkerCount());
+
+        CountDownLatch started = new CountDownLatch(4);
+        CountDownLatch release = new CountDownLatch(1);
+        List<LightFuture<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final int j = i;
+            tasks.add(pool.addTask(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+                return j;
+            }));
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(4, metrics.getWorkerCount());
+        assertEquals(3, metrics.getScaleUpCount());
+
+        release.countDown();
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, tasks.get(i).get().intValue());
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (metrics.getWorkerCount() > 1 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, metrics.getWorkerCount());
+        assertEquals(3, metrics.getScaleDownCount());
+        assertEquals(4, metrics.getLargestWorkerCount());
+        assertEquals(6, metrics.getScaleEvents().size());
+        assertFalse(metrics.getScaleEvents().get(5).isScaleUp());
+
+        assertEquals(5, pool.addTask(() -> 5).get().intValue());
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testElasticPoolWithoutCoreThreads() throws Exception {
+        ThreadPool<Integer> pool = new ThreadPool<>(0, 2, 50, TimeUnit.MILLISECONDS);
+        assertEquals(0, pool.getMetrics().getWorkerCount());
+        assertEquals(42, pool.addTask(() -> 42).get().intValue());
+        assertEquals(1, pool.getMetrics().getScaleUpCount());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pool.getMetrics().getWorkerCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, pool.getMetrics().getWorkerCount());
+        assertFalse(pool.isTerminated());
+        assertEquals(43, pool.addTask(() -> 43).get().intValue());
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testPriorities() throws Exception {
+        ThreadPool<Integer> pool = new ThreadPool<>(1);
+        CountDownLatch release = new CountDownLatch(1);
+        pool.addTask(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            return 0;
+        });
+        Thread.sleep(100);
+
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<LightFuture<Integer>> tasks = new ArrayList<>();
+        tasks.add(pool.addTask(() -> order.add(-1) ? 0 : 0, -1));
+        tasks.add(pool.addTask(() -> order.add(0) ? 0 : 0));
+        tasks.add(pool.addTask(() -> order.add(1) ? 0 : 0, 1));
+        tasks.add(pool.addTask(() -> order.add(5) ? 0 : 0, 5));
+        tasks.add(pool.addTask(() -> order.add(3) ? 0 : 0, 3));
+        release.countDown();
+        for (LightFuture<Integer> task : tasks) {
+            task.get();
+        }
+        assertEquals(Arrays.asList(5, 3, 1, 0, -1), order);
+
+        Map<Integer, ThreadPoolMetrics.QueueWait> waits = pool.getMetrics().getQueueWaits();
+        assertEquals(Arrays.asList(5, 3, 1, 0, -1), new ArrayList<>(waits.keySet()));
+        assertEquals(1, waits.get(5).getCount());
+        assertEquals(2, waits.get(ThreadPool.DEFAULT_PRIORITY).getCount());
+        assertTrue(waits.get(5).getMeanNanos() > 0);
+        pool.shutdown();
+    }
+
+    @Test
+    void testExpiredTaskIsNotRun() throws Exception {
+        ThreadPool<Integer> pool = new ThreadPool<>(1);
+        CountDownLatch release = new CountDownLatch(1);
+        pool.addTask(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            return 0;
+        });
+        Thread.sleep(100);
+
+        boolean[] run = new boolean[1];
+        LightFuture<Integer> late = pool.addTask(() -> {
+            run[0] = true;
+            return 1;
+        }, 1, 10, TimeUnit.MILLISECONDS);
+        LightFuture<Integer> onTime = pool.addTask(() -> 2, 1, 1, TimeUnit.MINUTES);
+        Thread.sleep(100);
+        release.countDown();
+
+        LightExecutionException exception = assertThrows(LightExecutionException.class, late::get);
+        assertTrue(exception.getCause() instanceof TimeoutException);
+        assertFalse(run[0]);
+        assertEquals(2, onTime.get().intValue());
+        assertEquals(1, pool.getMetrics().getQueueWaits().get(1).getExpiredCount());
+        pool.shutdown();
+    }
+
+    @Test
+    void testTaskExpiresWhileWorkersAreBusy() throws Exception {
+        ThreadPool<Integer> pool = new ThreadPool<>(1);
+        CountDownLatch release = new CountDownLatch(1);
+        pool.addTask(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            return 0;
+        });
+        Thread.sleep(100);
+
+        LightFuture<Integer> late = pool.addTask(() -> 1, -1, 10, TimeUnit.MILLISECONDS);
+        LightExecutionException exception = assertThrows(LightExecutionException.class,
+                () -> late.get(10, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof TimeoutException);
+        assertEquals(1, pool.getMetrics().getQueueWaits().get(-1).getExpiredCount());
+
+        release.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testCancelQueuedTask() throws Exception {
+        ThreadPool<Integer> pool = new ThreadPool<>(1);
+        CountDownLatch release = new CountDownLatch(1);
+        pool.addTask(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            return 0;
+        });
+
+        boolean[] run = new boolean[1];
+        LightFuture<Integer> queued = pool.addTask(() -> {
+            run[0] = true;
+            return 1;
+        });
+        LightFuture<Integer> dependent = queued.thenApply(i -> i + 1);
+        LightFuture<Integer> next = pool.addTask(() -> 2);
+
+        assertTrue(queued.cancel(false));
+        assertFalse(queued.cancel(false));
+        assertTrue(queued.isCancelled());
+        assertTrue(queued.isReady());
+        assertTrue(dependent.isCancelled());
+        LightExecutionException e = assertThrows(LightExecutionException.class, dependent::get);
+        assertTrue(e.getCause() instanceof CancellationException);
+
+        release.countDown();
+        assertEquals(2, next.get().intValue());
+        assertFalse(run[0]);
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testCancelRunningTask() throws Exception {
+        ThreadPool<Integer> pool = new ThreadPool<>(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        LightFuture<Integer> running = pool.addTask(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return 1;
+        });
+        started.await();
+
+        assertTrue(running.cancel(true));
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        assertTrue(running.isCancelled());
+        assertThrows(LightExecutionException.class, running::get);
+
+        LightFuture<Boolean> next = pool.addTask(() -> Thread.currentThread().isInterrupted());
+        assertFalse(next.get());
+        assertFalse(next.cancel(true));
+        assertFalse(next.isCancelled());
+        pool.shutdown();
+    }
+
+    @Test
+    void testIllegalConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new ThreadPool<Integer>(2, 1, 0, TimeUnit.SECONDS));
+        assertThrows(IllegalArgumentException.class, () -> new ThreadPool<Integer>(0, 0, 0, TimeUnit.SECONDS));
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     void testThenApply() throws LightFuture.LightExecutionException {
@@ -120,6 +420,230 @@ class ThreadPoolTest {
         }
     }
 
+    @Test
+    void testThenApplyChangesType() throws LightFuture.LightExecutionException {
+        ThreadPool<Integer> pool = new ThreadPool<>(2);
+        LightFuture<String> task = pool.addTask(() -> 21).thenApply(i -> i * 2).thenApply(Object::toString);
+        assertEquals("42", task.get());
+        pool.shutdown();
+    }
+
+    @Test
+    void testLongChainDoesNotBlockWorkers() throws LightFuture.LightExecutionException {
+        ThreadPool<Integer> pool = new ThreadPool<>(2);
+        CountDownLatch release = new CountDownLatch(1);
+        LightFuture<Integer> task = pool.addTask(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            return 0;
+        });
+        for (int i = 0; i < 10000; i++) {
+            task = task.thenApply(k -> k + 1);
+        }
+        LightFuture<Integer> independent = pool.addTask(() -> 42);
+
+        assertEquals(42, independent.get().intValue());
+        release.countDown();
+        assertEquals(10000, task.get().intValue());
+        pool.shutdown();
+    }
+
+    @Test
+    void testThenApplyPropagatesException() {
+        ThreadPool<Integer> pool = new ThreadPool<>(2);
+        RuntimeException failure = new RuntimeException("Hello world!");
+        boolean[] applied = {false};
+        LightFuture<Integer> task = pool.<Integer>addTask(() -> {
+            throw failure;
+        }).thenApply(i -> {
+            applied[0] = true;
+            return i + 1;
+        });
+
+        LightExecutionException e = assertThrows(LightExecutionException.class, task::get);
+        assertSame(failure, e.getCause());
+        assertFalse(applied[0]);
+        pool.shutdown();
+    }
+
+    @Test
+    void testThenCompose() throws LightFuture.LightExecutionException {
+        ThreadPool<Integer> pool = new ThreadPool<>(1);
+        ThreadPool<Integer> other = new ThreadPool<>(1);
+        LightFuture<String> task = pool.addTask(() -> 6)
+                .thenCompose(i -> pool.addTask(() -> i * 7))
+                .thenCompose(i -> other.addTask(() -> i + 1))
+                .thenApply(Object::toString);
+        assertEquals("43", task.get());
+        pool.shutdown();
+        other.shutdown();
+    }
+
+    @Test
+    void testThenCombine() throws LightFuture.LightExecutionException {
+        ThreadPool<Integer> pool = new ThreadPool<>(2);
+        LightFuture<Integer> left = pool.addTask(() -> 6);
+        LightFuture<String> right = left.thenApply(i -> "x" + i);
+        LightFuture<String> combined = left.thenCombine(right, (i, s) -> s + "=" + i);
+        assertEquals("x6=6", combined.get());
+
+        LightFuture<Integer> failed = pool.addTask(() -> {
+            throw new IllegalStateException();
+        });
+        LightFuture<Integer> sum = left.thenCombine(failed, (i, j) -> i + j);
+        LightExecutionException e = assertThrows(LightExecutionException.class, sum::get);
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        pool.shutdown();
+    }
+
+    @Test
+    void testAddAll() throws LightFuture.LightExecutionException {
+        ThreadPool<Integer> pool = new ThreadPool<>(4);
+        List<Supplier<Integer>> batch = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            final int j = i;
+            batch.add(() -> j * 2);
+        }
+        List<LightFuture<Integer>> tasks = pool.addAll(batch);
+
+        assertEquals(10000, tasks.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i * 2, tasks.get(i).get().intValue());
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    void testInvokeAll() {
+        ThreadPool<Integer> pool = new ThreadPool<>(2);
+        List<LightFuture<Integer>> tasks = pool.invokeAll(Arrays.asList(() -> 1, () -> {
+            throw new IllegalStateException();
+        }, () -> 3));
+
+        for (LightFuture<Integer> task : tasks) {
+            assertTrue(task.isReady());
+        }
+        assertThrows(LightExecutionException.class, tasks.get(1)::get);
+        pool.shutdown();
+    }
+
+    @Test
+    void testInvokeAny() throws LightFuture.LightExecutionException {
+        ThreadPool<Integer> pool = new ThreadPool<>(2);
+        CountDownLatch release = new CountDownLatch(1);
+        assertEquals(2, pool.<Integer>invokeAny(Arrays.asList(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            return 1;
+        }, () -> {
+            throw new IllegalStateException();
+        }, () -> 2)).intValue());
+        release.countDown();
+
+        LightExecutionException e = assertThrows(LightExecutionException.class,
+                () -> pool.invokeAny(Collections.singletonList(() -> {
+                    throw new IllegalStateException();
+                })));
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        pool.shutdown();
+    }
+
+    @Test
+    void testInvokeAnyCancelsOtherTasks() throws Exception {
+        ThreadPool<Integer> pool = new ThreadPool<>(2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        assertEquals(2, pool.<Integer>invokeAny(Arrays.asList(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return 1;
+        }, () -> {
+            try {
+                started.await();
+            } catch (InterruptedException ignored) {
+            }
+            return 2;
+        })).intValue());
+
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testInCompletionOrder() {
+        ThreadPool<Integer> pool = new ThreadPool<>(3);
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(1);
+        LightFuture<Integer> slow = pool.addTask(() -> {
+            try {
+                second.await();
+            } catch (InterruptedException ignored) {
+            }
+            return 1;
+        });
+        LightFuture<Integer> middle = pool.addTask(() -> {
+            try {
+                first.await();
+            } catch (InterruptedException ignored) {
+            }
+            return 2;
+        });
+        LightFuture<Integer> fast = pool.addTask(() -> 3);
+
+        Iterator<LightFuture<Integer>> order = pool.inCompletionOrder(Arrays.asList(slow, middle, fast));
+        assertSame(fast, order.next());
+        first.countDown();
+        assertSame(middle, order.next());
+        second.countDown();
+        assertSame(slow, order.next());
+        assertFalse(order.hasNext());
+        pool.shutdown();
+    }
+
+    @Test
+    void testTasksOfDifferentTypes() throws LightFuture.LightExecutionException {
+        ThreadPool<Object> pool = new ThreadPool<>(2);
+        LightFuture<String> text = pool.addTask(() -> "Hello");
+        LightFuture<Integer> number = pool.addTask(() -> 42);
+        LightFuture<List<Integer>> list = pool.addTask(() -> Arrays.asList(1, 2));
+
+        assertEquals("Hello", text.get());
+        assertEquals(42, number.get().intValue());
+        assertEquals(Arrays.asList(1, 2), list.get());
+        pool.shutdown();
+    }
+
+    @Test
+    void testPrimitiveTasks() throws Exception {
+        ThreadPool<?> pool = new ThreadPool<>(2);
+        IntLightFuture intTask = pool.addIntTask(() -> 6 * 7);
+        LongLightFuture longTask = pool.addLongTask(() -> 1L << 40);
+        DoubleLightFuture doubleTask = pool.addDoubleTask(() -> Math.sqrt(2));
+
+        assertEquals(42, intTask.getAsInt());
+        assertEquals(1L << 40, longTask.getAsLong(1, TimeUnit.SECONDS));
+        assertEquals(Math.sqrt(2), doubleTask.getAsDouble(), 1e-12);
+        assertEquals(42, intTask.get().intValue());
+        assertEquals("43", intTask.thenApply(i -> i + 1).thenApply(Object::toString).get());
+        assertEquals(42 + (1L << 40), intTask.thenCombine(longTask, (i, l) -> i + l).get().longValue());
+
+        IntLightFuture failed = pool.addIntTask(() -> {
+            throw new IllegalStateException();
+        });
+        assertThrows(LightExecutionException.class, failed::getAsInt);
+        assertThrows(LightExecutionException.class, failed.thenApply(i -> i + 1)::get);
+        pool.shutdown();
+    }
+
     @Test
     void testMultipleThreads() throws InterruptedException {
         ThreadPool<Integer> pool = new ThreadPool<>(2);
@@ -152,6 +676,108 @@ class ThreadPoolTest {
         }
     }
 
+    @Test
+    void testIdleWorkersAreParked() throws InterruptedException, NoSuchFieldException, IllegalAccessException {
+        ThreadPool<Integer> pool = new ThreadPool<>(4);
+        Field threads = pool.getClass().getDeclaredField("threads");
+        threads.setAccessible(true);
+
+        Thread.sleep(500);
+
+        for (Thread thread : (Thread[]) threads.get(pool)) {
+            assertEquals(Thread.State.WAITING, thread.getState());
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testTasksAddedByWorkersAreStolen() throws LightFuture.LightExecutionException {
+        ThreadPool<Integer> pool = new ThreadPool<>(4);
+        Set<Thread> runners = ConcurrentHashMap.newKeySet();
+        LightFuture<Integer>[][] tasks = new LightFuture[1][];
+        LightFuture<Integer> parent = pool.addTask(() -> {
+            tasks[0] = new LightFuture[100];
+            for (int i = 0; i < 100; i++) {
+                final int j = i;
+                tasks[0][i] = pool.addTask(() -> {
+                    runners.add(Thread.currentThread());
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException ignored) {
+                    }
+                    return j;
+                });
+            }
+            return 0;
+        });
+
+        assertEquals(0, parent.get().intValue());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, tasks[0][i].get().intValue());
+        }
+        assertTrue(runners.size() > 1);
+        pool.shutdown();
+    }
+
+    @Test
+    void testGetWithTimeout() throws Exception {
+        ThreadPool<Integer> pool = new ThreadPool<>(1);
+        CountDownLatch release = new CountDownLatch(1);
+        LightFuture<Integer> task = pool.addTask(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            return 42;
+        });
+
+        assertThrows(TimeoutException.class, () -> task.get(100, TimeUnit.MILLISECONDS));
+        assertFalse(task.isReady());
+        release.countDown();
+        assertEquals(42, task.get(10, TimeUnit.SECONDS).intValue());
+        assertTrue(task.isReady());
+        pool.shutdown();
+    }
+
+    @Test
+    void testWaitingCallersAreParked() throws InterruptedException {
+        ThreadPool<Integer> pool = new ThreadPool<>(1);
+        CountDownLatch release = new CountDownLatch(1);
+        LightFuture<Integer> task = pool.addTask(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            return 42;
+        });
+
+        Thread[] callers = new Thread[10];
+        int[] results = new int[10];
+        for (int i = 0; i < 10; i++) {
+            final int j = i;
+            callers[i] = new Thread(() -> {
+                try {
+                    results[j] = task.get();
+                } catch (LightExecutionException ignored) {
+                }
+            });
+            callers[i].setDaemon(true);
+            callers[i].start();
+        }
+        Thread.sleep(500);
+        for (Thread caller : callers) {
+            assertEquals(Thread.State.WAITING, caller.getState());
+        }
+
+        release.countDown();
+        for (int i = 0; i < 10; i++) {
+            callers[i].join();
+            assertEquals(42, results[i]);
+        }
+        pool.shutdown();
+    }
+
     @Test
     void testLightExecutionException() {
         ThreadPool<Integer> pool = new ThreadPool<>(1);
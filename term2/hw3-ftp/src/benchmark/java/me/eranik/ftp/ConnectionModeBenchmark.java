@@ -0,0 +1,109 @@
+package me.eranik.ftp;
+
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compares the ways the server serves connections under many concurrent slow clients: a platform thread
+ * per connection, a virtual thread per connection and a few selector-driven event loops. Server and clients
+ * run in the same JVM; clients are simulated by {@link SlowClients} from a single thread.
+ * <p>
+ * For each mode the benchmark prints time to connect all clients, throughput and latency of queries,
+ * peak number of JVM threads and heap used while all clients are connected. Ten thousand clients require
+ * about twenty thousand file descriptors, so the limit of open files may need to be raised.
+ */
+public class ConnectionModeBenchmark {
+
+    private static final int PORT_NUMBER = 23456;
+
+    /**
+     * Runs benchmark.
+     * @param args optional arguments: number of clients (10000 by default), number of queries sent by each
+     *             client (5 by default), pause between queries of one client in milliseconds (1000 by default)
+     *             and comma-separated modes to compare ({@code threads,virtual,selector} by default)
+     */
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long thinkMillis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+        String modes = args.length > 3 ? args[3] : "threads,virtual,selector";
+
+        Logger.getGlobal().setLevel(Level.WARNING);
+        File root = Files.createTempDirectory("ftp-benchmark").toFile();
+        try {
+            for (int i = 0; i < 10; i++) {
+                Files.write(new File(root, "file" + i + ".txt").toPath(), new byte[1024]);
+            }
+
+            System.out.printf("%d clients, %d queries per client, %d ms between queries%n",
+                    clients, queries, thinkMillis);
+            System.out.printf("%-10s %9s %9s %8s %10s %9s %9s %9s %9s %8s%n", "mode", "connected", "failed",
+                    "conn, s", "queries/s", "p50, ms", "p99, ms", "max, ms", "threads", "heap, MB");
+            for (String name : modes.split(",")) {
+                Server.ConnectionMode mode = Server.ConnectionMode.getEnum(name);
+                if (mode == null) {
+                    System.out.printf("%-10s unknown mode%n", name);
+                } else if (!mode.isSupported()) {
+                    System.out.printf("%-10s is not supported by this JVM%n", name);
+                } else {
+                    run(name, mode, root, clients, queries, thinkMillis);
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    private static void run(@NotNull String name, @NotNull Server.ConnectionMode mode, @NotNull File root,
+                            int clients, int queries, long thinkMillis) throws InterruptedException, IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        int threadsBefore = threads.getThreadCount();
+
+        Server server = new Server(PORT_NUMBER);
+        server.setConnectionMode(mode);
+        server.setWorkerCount(clients);
+        server.setConnectionQueueCapacity(clients);
+        server.setAcceptBacklog(clients);
+        Thread serverThread = new Thread(server::runServer);
+        serverThread.start();
+        while (!server.isRunning()) {
+            Thread.sleep(10);
+        }
+
+        System.gc();
+        threads.resetPeakThreadCount();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long[] heapConnected = {0};
+
+        SlowClients load = new SlowClients(new InetSocketAddress("localhost", PORT_NUMBER), root.getPath(),
+                clients, queries, thinkMillis);
+        load.setOnConnected(() -> heapConnected[0] = memory.getHeapMemoryUsage().getUsed() - heapBefore);
+        SlowClients.Result result = load.run();
+        int peakThreads = threads.getPeakThreadCount();
+
+        while (server.isRunning()) {
+            serverThread.interrupt();
+            Thread.sleep(100);
+        }
+        for (int i = 0; i < 100 && threads.getThreadCount() > threadsBefore; i++) {
+            Thread.sleep(100);
+        }
+
+        System.out.printf("%-10s %9d %9d %8.2f %10.0f %9.2f %9.2f %9.2f %9d %8.1f%n", name,
+                result.connectedClients, result.failedClients, result.connectNanos / 1e9,
+                result.queries / (result.totalNanos / 1e9), result.getLatencyMillis(50),
+                result.getLatencyMillis(99), result.getLatencyMillis(100), peakThreads,
+                heapConnected[0] / 1e6);
+    }
+}
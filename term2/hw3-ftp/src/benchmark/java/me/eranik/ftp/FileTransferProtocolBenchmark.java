@@ -0,0 +1,141 @@
+package me.eranik.ftp;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Microbenchmarks of the hot paths of {@link FileTransferProtocol}: parsing the path of query,
+ * building directory listing and sending file in response to get query.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileTransferProtocolBenchmark {
+
+    @State(Scope.Thread)
+    public static class PathState {
+
+        /**
+         * Length of the path in the query.
+         */
+        @Param({"16", "256", "4096"})
+        public int pathLength;
+
+        private byte[] query;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            StringBuilder path = new StringBuilder();
+            while (path.length() < pathLength) {
+                path.append("directory/");
+            }
+            query = path.substring(0, pathLength).getBytes();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class TreeState {
+
+        /**
+         * Depth of the listed directory tree, every directory has four subdirectories and eight files.
+         */
+        @Param({"2", "4"})
+        public int treeDepth;
+
+        private File root;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            root = Files.createTempDirectory("ftp-jmh").toFile();
+            new SyntheticTree(root, treeDepth, 4, 8, 0);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FileState {
+
+        /**
+         * Size of the sent file.
+         */
+        @Param({"4096", "1048576"})
+        public int fileSize;
+
+        /**
+         * Whether the response is written to a channel-backed connection, so that the file is sent
+         * with {@link java.nio.channels.FileChannel#transferTo}, or copied through the stream.
+         * The sink is not a socket, so transfer falls back to copying inside JDK and only the overhead
+         * of the code path is measured, not the zero-copy gain.
+         */
+        @Param({"true", "false"})
+        public boolean channelBacked;
+
+        /**
+         * Whether the file is sent from its memory mapping. The file is requested on every invocation,
+         * so it is mapped after the first ones and stays mapped.
+         */
+        @Param({"false", "true"})
+        public boolean mapped;
+
+        private File file;
+        private FileTransferProtocol protocol;
+        private FileTransferProtocol.ResponseWriter writer;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            Logger.getGlobal().setLevel(java.util.logging.Level.WARNING);
+            file = Files.createTempFile("ftp-jmh", ".bin").toFile();
+            Files.write(file.toPath(), new byte[fileSize]);
+
+            protocol = new FileTransferProtocol(null, Collections.emptyMap(), new FileDigestCache(16),
+                    mapped ? new MappedFileCache(fileSize) : null, new MetricsRegistry());
+            OutputStream sink = new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            };
+            writer = new FileTransferProtocol.StreamResponseWriter(new DataOutputStream(sink),
+                    channelBacked ? Channels.newChannel(sink) : null, true);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public String readPath(PathState state) throws IOException {
+        return FileTransferProtocol.readPath(new DataInputStream(new ByteArrayInputStream(state.query)));
+    }
+
+    @Benchmark
+    public void getDirectoryTree(TreeState state, Blackhole blackhole) {
+        StringBuilder list = new StringBuilder();
+        blackhole.consume(FileTransferProtocol.getDirectoryTree(state.root, list));
+        blackhole.consume(list);
+    }
+
+    @Benchmark
+    public void processGetQuery(FileState state) throws IOException {
+        state.protocol.processGetQuery(state.writer, state.file.getPath());
+    }
+}
@@ -0,0 +1,220 @@
+package me.eranik.ftp;
+
+import org.HdrHistogram.Histogram;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures throughput and latency of the server. Starts server on the loopback interface, generates
+ * {@link SyntheticTree} and runs the specified number of concurrent clients, each of them sending
+ * a mix of list and get queries over its own persistent connection as fast as it can.
+ * <p>
+ * Queries sent during the first {@link #WARM_UP_SECONDS} seconds are not measured. For each type of query
+ * the generator prints number of operations per second, megabytes per second and percentiles of latency;
+ * the whole latency distribution of all queries is printed in HdrHistogram format.
+ */
+public class LoadGenerator {
+
+    private static final int PORT_NUMBER = 23457;
+    private static final int WARM_UP_SECONDS = 2;
+    private static final int DIRECTORIES_PER_LEVEL = 4;
+    private static final int FILES_PER_DIRECTORY = 8;
+
+    /**
+     * Runs load test.
+     * @param args optional arguments: number of clients (16 by default), duration of measurement in seconds
+     *             (10 by default), percent of list queries in the mix (20 by default), depth of the synthetic
+     *             tree (3 by default, that is 85 directories and 680 files), size of every file in bytes
+     *             (65536 by default) and connection mode of the server ({@code threads} by default)
+     */
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int listPercent = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        int fileSize = args.length > 4 ? Integer.parseInt(args[4]) : 64 * 1024;
+        Server.ConnectionMode mode = Server.ConnectionMode.getEnum(args.length > 5 ? args[5] : "threads");
+        if (mode == null || !mode.isSupported()) {
+            System.err.println("Connection mode is unknown or not supported by this JVM.");
+            System.exit(1);
+        }
+
+        Logger.getGlobal().setLevel(Level.WARNING);
+        File root = Files.createTempDirectory("ftp-load").toFile();
+        try {
+            SyntheticTree tree = new SyntheticTree(root, depth, DIRECTORIES_PER_LEVEL, FILES_PER_DIRECTORY,
+                    fileSize);
+            System.out.printf("%s mode, %d clients, %d%% of list queries, %d files of %d bytes in %d directories%n",
+                    mode, clients, listPercent, tree.getFiles().size(), fileSize, tree.getDirectories().size());
+
+            Server server = new Server(PORT_NUMBER);
+            server.setConnectionMode(mode);
+            Thread serverThread = new Thread(server::runServer);
+            serverThread.start();
+            while (!server.isRunning()) {
+                Thread.sleep(10);
+            }
+
+            try {
+                run(tree, clients, seconds, listPercent);
+            } finally {
+                while (server.isRunning()) {
+                    serverThread.interrupt();
+                    Thread.sleep(100);
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    private static void run(@NotNull SyntheticTree tree, int clients, int seconds, int listPercent)
+            throws InterruptedException {
+        long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARM_UP_SECONDS);
+        long deadline = measureStart + TimeUnit.SECONDS.toNanos(seconds);
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        List<Future<Worker>> futures = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            futures.add(executor.submit(new Worker(tree, listPercent, measureStart, deadline, i)));
+        }
+        executor.shutdown();
+
+        Histogram listLatency = new Histogram(3);
+        Histogram getLatency = new Histogram(3);
+        long listBytes = 0;
+        long getBytes = 0;
+        int failed = 0;
+        for (Future<Worker> future : futures) {
+            try {
+                Worker worker = future.get();
+                listLatency.add(worker.listLatency);
+                getLatency.add(worker.getLatency);
+                listBytes += worker.listBytes;
+                getBytes += worker.getBytes;
+            } catch (ExecutionException e) {
+                failed++;
+                System.err.println("Client failed: " + e.getCause());
+            }
+        }
+
+        if (failed > 0) {
+            System.out.printf("%d clients failed%n", failed);
+        }
+        System.out.printf("%-6s %10s %10s %8s %9s %9s %9s %9s %9s%n", "query", "ops", "ops/s", "MB/s",
+                "p50, ms", "p90, ms", "p99, ms", "p99.9, ms", "max, ms");
+        report("list", listLatency, listBytes, seconds);
+        report("get", getLatency, getBytes, seconds);
+
+        Histogram total = listLatency.copy();
+        total.add(getLatency);
+        report("all", total, listBytes + getBytes, seconds);
+
+        System.out.println();
+        System.out.println("Latency distribution of all queries, ms:");
+        total.outputPercentileDistribution(System.out, 1e6);
+    }
+
+    private static void report(@NotNull String name, @NotNull Histogram latency, long bytes, int seconds) {
+        System.out.printf("%-6s %10d %10.0f %8.1f %9.3f %9.3f %9.3f %9.3f %9.3f%n", name, latency.getTotalCount(),
+                (double) latency.getTotalCount() / seconds, bytes / 1e6 / seconds,
+                latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(90) / 1e6,
+                latency.getValueAtPercentile(99) / 1e6, latency.getValueAtPercentile(99.9) / 1e6,
+                latency.getMaxValue() / 1e6);
+    }
+
+    /**
+     * Client that sends queries over one persistent connection until the deadline and records their latency.
+     */
+    private static class Worker implements Callable<Worker> {
+
+        private final SyntheticTree tree;
+        private final int listPercent;
+        private final long measureStart;
+        private final long deadline;
+        private final Random random;
+        private final byte[] buffer = new byte[64 * 1024];
+
+        private final Histogram listLatency = new Histogram(3);
+        private final Histogram getLatency = new Histogram(3);
+        private long listBytes = 0;
+        private long getBytes = 0;
+
+        private Worker(@NotNull SyntheticTree tree, int listPercent, long measureStart, long deadline, int seed) {
+            this.tree = tree;
+            this.listPercent = listPercent;
+            this.measureStart = measureStart;
+            this.deadline = deadline;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public Worker call() throws IOException {
+            try (Socket socket = new Socket("localhost", PORT_NUMBER);
+                 DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                 DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))
+            ) {
+                output.writeInt(FileTransferProtocol.FRAMED_PROTOCOL);
+                for (long start = System.nanoTime(); start < deadline; start = System.nanoTime()) {
+                    boolean list = random.nextInt(100) < listPercent;
+                    List<File> targets = list ? tree.getDirectories() : tree.getFiles();
+                    byte[] path = targets.get(random.nextInt(targets.size())).getPath().getBytes();
+
+                    output.writeInt(list ? QueryType.listQuery.getValue() : QueryType.getQuery.getValue());
+                    output.writeInt(path.length);
+                    output.write(path);
+                    output.flush();
+
+                    long bytes = list ? readListResponse(input) : readGetResponse(input);
+                    long latency = System.nanoTime() - start;
+                    if (start >= measureStart) {
+                        (list ? listLatency : getLatency).recordValue(latency);
+                        if (list) {
+                            listBytes += bytes;
+                        } else {
+                            getBytes += bytes;
+                        }
+                    }
+                }
+            }
+            return this;
+        }
+
+        private long readListResponse(@NotNull DataInputStream input) throws IOException {
+            input.readInt();
+            int length = input.readInt();
+            skip(input, length);
+            return 2 * Integer.BYTES + length;
+        }
+
+        private long readGetResponse(@NotNull DataInputStream input) throws IOException {
+            long size = input.readLong();
+            if (size < 0) {
+                throw new FileNotFoundException("File of the synthetic tree was not found on server");
+            }
+            input.readBoolean();
+            skip(input, FileDigestCache.DIGEST_LENGTH + size);
+            return Long.BYTES + 1 + FileDigestCache.DIGEST_LENGTH + size;
+        }
+
+        private void skip(@NotNull DataInputStream input, long count) throws IOException {
+            while (count > 0) {
+                int read = input.read(buffer, 0, (int) Math.min(buffer.length, count));
+                if (read == -1) {
+                    throw new EOFException("Connection was closed before response was read");
+                }
+                count -= read;
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Simulates many slow clients from a single thread. Every client keeps one framed connection open for its
+ * whole life: it sends a list query, reads the response, thinks for a while and repeats. So the number of open
+ * connections stays high, while the number of queries in progress stays low.
+ */
+class SlowClients {
+
+    /**
+     * Maximum number of connections that are being established at once, so that the accept backlog
+     * of the server does not overflow.
+     */
+    private static final int MAX_PENDING_CONNECTS = 512;
+
+    private final InetSocketAddress address;
+    private final byte[] query;
+    private final int clientCount;
+    private final int queriesPerClient;
+    private final long thinkNanos;
+    private final Random random = new Random(42);
+
+    private Runnable onConnected = () -> {};
+
+    /**
+     * Creates clients that list the specified directory.
+     * @param address address of the server
+     * @param path path to the directory on server
+     * @param clientCount number of clients
+     * @param queriesPerClient number of queries sent by each client
+     * @param thinkMillis pause between response and the next query of the same client in milliseconds
+     */
+    SlowClients(@NotNull InetSocketAddress address, @NotNull String path, int clientCount, int queriesPerClient,
+                long thinkMillis) {
+        this.address = address;
+        this.clientCount = clientCount;
+        this.queriesPerClient = queriesPerClient;
+        this.thinkNanos = thinkMillis * 1_000_000;
+
+        byte[] pathBytes = path.getBytes();
+        ByteBuffer frame = ByteBuffer.allocate(2 * Integer.BYTES + pathBytes.length);
+        frame.putInt(QueryType.listQuery.getValue()).putInt(pathBytes.length).put(pathBytes);
+        this.query = frame.array();
+    }
+
+    /**
+     * Sets action that is performed once all clients are connected.
+     * @param onConnected specified action
+     */
+    void setOnConnected(@NotNull Runnable onConnected) {
+        this.onConnected = onConnected;
+    }
+
+    /**
+     * Runs all clients until each of them sends all its queries or fails.
+     * @return results of the run
+     * @throws IOException if selector cannot be opened
+     */
+    @NotNull
+    Result run() throws IOException {
+        Result result = new Result(clientCount * queriesPerClient);
+        PriorityQueue<Client> sleeping = new PriorityQueue<>(Comparator.comparingLong(client -> client.wakeUp));
+        long start = System.nanoTime();
+        int opened = 0;
+        int pending = 0;
+        int finished = 0;
+
+        try (Selector selector = Selector.open()) {
+            while (finished < clientCount) {
+                for (; opened < clientCount && pending < MAX_PENDING_CONNECTS; opened++, pending++) {
+                    Client client = new Client();
+                    try {
+                        client.channel = SocketChannel.open();
+                        client.channel.configureBlocking(false);
+                        client.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                        client.channel.connect(address);
+                        client.key = client.channel.register(selector, SelectionKey.OP_CONNECT, client);
+                    } catch (IOException e) {
+                        client.close();
+                        result.failedClients++;
+                        finished++;
+                        pending--;
+                    }
+                }
+
+                long timeout = 100;
+                if (!sleeping.isEmpty()) {
+                    timeout = Math.max(1, (sleeping.peek().wakeUp - System.nanoTime()) / 1_000_000);
+                }
+                selector.select(timeout);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Client client = (Client) key.attachment();
+                    try {
+                        if (key.isConnectable()) {
+                            if (!client.channel.finishConnect()) {
+                                continue;
+                            }
+                            client.connected = true;
+                            pending--;
+                            if (++result.connectedClients == clientCount) {
+                                result.connectNanos = System.nanoTime() - start;
+                                onConnected.run();
+                            }
+                            client.sleep(sleeping, thinkNanos == 0 ? 0 : random.nextLong() % thinkNanos);
+                        } else if (key.isWritable()) {
+                            client.write();
+                        } else if (key.isReadable() && client.read()) {
+                            result.latencies[result.queries++] = System.nanoTime() - client.sentAt;
+                            if (++client.answered == queriesPerClient) {
+                                client.close();
+                                result.completedClients++;
+                                finished++;
+                            } else {
+                                client.sleep(sleeping, thinkNanos);
+                            }
+                        }
+                    } catch (IOException e) {
+                        if (!client.connected) {
+                            pending--;
+                        }
+                        client.close();
+                        result.failedClients++;
+                        finished++;
+                    }
+                }
+
+                long now = System.nanoTime();
+                while (!sleeping.isEmpty() && sleeping.peek().wakeUp <= now) {
+                    sleeping.poll().wakeUp();
+                }
+            }
+        }
+        result.totalNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * State of a single simulated client.
+     */
+    private class Client {
+        private SocketChannel channel;
+        private SelectionKey key;
+        private long wakeUp;
+        private long sentAt;
+        private int answered = 0;
+        private boolean connected = false;
+        private boolean handshake = true;
+        private ByteBuffer output;
+        private final ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+        private ByteBuffer body;
+
+        private void sleep(@NotNull PriorityQueue<Client> sleeping, long nanos) {
+            key.interestOps(0);
+            wakeUp = System.nanoTime() + Math.abs(nanos);
+            sleeping.add(this);
+        }
+
+        private void wakeUp() {
+            if (handshake) {
+                output = ByteBuffer.allocate(Integer.BYTES + query.length);
+                output.putInt(FileTransferProtocol.FRAMED_PROTOCOL).put(query).flip();
+                handshake = false;
+            } else {
+                output = ByteBuffer.wrap(query);
+            }
+            sentAt = System.nanoTime();
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        private void write() throws IOException {
+            channel.write(output);
+            if (!output.hasRemaining()) {
+                header.clear();
+                body = null;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Reads available part of the response.
+         * @return {@code true} if the response is read completely; {@code false} otherwise
+         */
+        private boolean read() throws IOException {
+            ByteBuffer target = body == null ? header : body;
+            if (channel.read(target) == -1) {
+                throw new IOException("Connection was closed by server");
+            }
+            if (body == null && !header.hasRemaining()) {
+                body = ByteBuffer.allocate(header.getInt(Integer.BYTES));
+                channel.read(body);
+            }
+            return body != null && !body.hasRemaining();
+        }
+
+        private void close() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Results of the run.
+     */
+    static class Result {
+        int connectedClients = 0;
+        int completedClients = 0;
+        int failedClients = 0;
+        int queries = 0;
+        long connectNanos = -1;
+        long totalNanos = 0;
+        final long[] latencies;
+
+        private Result(int maxQueries) {
+            latencies = new long[maxQueries];
+        }
+
+        /**
+         * Returns latency of the query that is slower than the specified share of queries.
+         * @param percentile share of queries from 0 to 100
+         * @return latency in milliseconds
+         */
+        double getLatencyMillis(double percentile) {
+            if (queries == 0) {
+                return Double.NaN;
+            }
+            long[] sorted = Arrays.copyOf(latencies, queries);
+            Arrays.sort(sorted);
+            int index = (int) Math.min(queries - 1, Math.ceil(percentile / 100 * queries) - 1);
+            return sorted[Math.max(index, 0)] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Directory tree with generated files for benchmarks. Every directory except the deepest ones contains
+ * the same number of subdirectories and files. Content of files is half random and half repeated text,
+ * so it is moderately compressible.
+ */
+class SyntheticTree {
+
+    private final File root;
+    private final List<File> directories = new ArrayList<>();
+    private final List<File> files = new ArrayList<>();
+
+    /**
+     * Creates tree in the specified directory.
+     * @param root directory to create tree in
+     * @param depth number of directory levels below the root
+     * @param directoriesPerLevel number of subdirectories in every directory above the deepest level
+     * @param filesPerDirectory number of files in every directory including the root
+     * @param fileSize size of every file in bytes
+     * @throws IOException if tree cannot be created
+     */
+    SyntheticTree(@NotNull File root, int depth, int directoriesPerLevel, int filesPerDirectory, int fileSize)
+            throws IOException {
+        this.root = root;
+        Random random = new Random(42);
+        byte[] text = "The quick brown fox jumps over the lazy dog. ".getBytes();
+        byte[] content = new byte[fileSize];
+        create(root, depth, directoriesPerLevel, filesPerDirectory, content, text, random);
+    }
+
+    private void create(@NotNull File directory, int depth, int directoriesPerLevel, int filesPerDirectory,
+                        @NotNull byte[] content, @NotNull byte[] text, @NotNull Random random) throws IOException {
+        Files.createDirectories(directory.toPath());
+        directories.add(directory);
+        for (int i = 0; i < filesPerDirectory; i++) {
+            for (int j = 0; j < content.length; j++) {
+                content[j] = j % 2 == 0 ? (byte) random.nextInt() : text[j / 2 % text.length];
+            }
+            File file = new File(directory, "file" + i + ".txt");
+            Files.write(file.toPath(), content);
+            files.add(file);
+        }
+        if (depth > 0) {
+            for (int i = 0; i < directoriesPerLevel; i++) {
+                create(new File(directory, "dir" + i), depth - 1, directoriesPerLevel, filesPerDirectory,
+                        content, text, random);
+            }
+        }
+    }
+
+    /**
+     * Returns root of the tree.
+     * @return root directory
+     */
+    @NotNull
+    File getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns all directories of the tree including the root.
+     * @return list of directories
+     */
+    @NotNull
+    List<File> getDirectories() {
+        return directories;
+    }
+
+    /**
+     * Returns all files of the tree.
+     * @return list of files
+     */
+    @NotNull
+    List<File> getFiles() {
+        return files;
+    }
+}
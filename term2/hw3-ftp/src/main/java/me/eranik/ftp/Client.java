@@ -1,10 +1,22 @@
 package me.eranik.ftp;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Client implementation. Provides possibility to list files in the specified directory on server
@@ -15,24 +27,51 @@ public class Client {
     private final int BUFFER_SIZE = 4096;
     private final byte[] buffer = new byte[BUFFER_SIZE];
 
+    /**
+     * Maximum number of queries sent over persistent connection before client starts reading responses.
+     */
+    private final int PIPELINE_DEPTH = 32;
+
     private String hostName;
     private int portNumber;
 
-    private Scanner reader;
+    private BufferedReader reader;
     private PrintWriter writer;
 
+    private boolean persistent = true;
+    private Socket socket;
+    private DataInputStream socketInput;
+    private DataOutputStream socketOutput;
+    private final ArrayDeque<PendingQuery> pendingQueries = new ArrayDeque<>();
+
+    private int parallelism = 1;
+    private long chunkSize = 1 << 20;
+
+    private int listingDepth = 0;
+    private int listingPageSize = 0;
+
+    private List<CompressionCodec> compressionCodecs = Arrays.asList(new DeflateCodec());
+
     private enum QueryStatus {
-        SUCCESS, CONNECTION_ERROR, RESPONSE_ERROR, FILE_NOT_EXISTS_ERROR
+        SUCCESS, NOT_MODIFIED, CONNECTION_ERROR, RESPONSE_ERROR, FILE_NOT_EXISTS_ERROR, LOCAL_FILE_ERROR,
+        LOCAL_WRITE_ERROR, DIGEST_MISMATCH_ERROR
     }
 
+    /**
+     * Suffix of the file that receives data until the whole file is downloaded.
+     */
+    private static final String PART_SUFFIX = ".part";
+
 
     /**
      * Runs client. Queries are sent to the server with the specified port and hostname.
-     * @param args list of arguments: first argument contains hostname, second argument contains port number
+     * @param args list of arguments: first argument contains hostname, second argument contains port number,
+     *             optional third and fourth arguments contain number of connections used to download one file
+     *             and size of range that is downloaded by one query
      */
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.err.println("Expected two arguments: <host name> <port number>");
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("Expected arguments: <host name> <port number> [<parallelism> [<chunk size>]]");
             System.exit(1);
         }
 
@@ -46,7 +85,19 @@ public class Client {
             System.exit(2);
         }
 
-        new Client(hostName, portNumber, System.in, System.out).runClient();
+        Client client = new Client(hostName, portNumber, System.in, System.out);
+        try {
+            if (args.length > 2) {
+                client.setParallelism(Integer.parseInt(args[2]));
+            }
+            if (args.length > 3) {
+                client.setChunkSize(Long.parseLong(args[3]));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Parallelism and chunk size should be positive integers.");
+            System.exit(3);
+        }
+        client.runClient();
     }
 
     /**
@@ -61,87 +112,427 @@ public class Client {
                   @NotNull OutputStream outputStream) {
         this.hostName = hostName;
         this.portNumber = portNumber;
-        this.reader = new Scanner(inputStream);
+        this.reader = new BufferedReader(new InputStreamReader(inputStream));
         this.writer = new PrintWriter(outputStream, true);
     }
 
     /**
-     * Runs client. It allows to send two types of queries:
+     * Chooses whether queries are sent over one persistent connection using framed protocol
+     * or each query opens its own connection. Persistent connection is used by default.
+     * @param persistent {@code true} to use persistent connection; {@code false} otherwise
+     */
+    public void setPersistentConnection(boolean persistent) {
+        this.persistent = persistent;
+    }
+
+    /**
+     * Sets number of connections used to download one file. If it is greater than one, files are split into
+     * ranges of {@link #setChunkSize chunk size} bytes that are downloaded concurrently. Default is one.
+     * @param parallelism number of concurrent connections per file
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism should be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets size of range that is requested by one query during parallel download. Default is 1 MB.
+     * @param chunkSize size of range in bytes
+     */
+    public void setChunkSize(long chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size should be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets maximum depth of entries printed by {@code walk} query. Non-positive value means that depth
+     * is not limited, which is the default.
+     * @param listingDepth maximum depth of listed entries
+     */
+    public void setListingDepth(int listingDepth) {
+        this.listingDepth = listingDepth;
+    }
+
+    /**
+     * Sets number of entries requested by one page of {@code walk} query. Non-positive value lets server
+     * choose the page size, which is the default.
+     * @param listingPageSize number of entries in one page
+     */
+    public void setListingPageSize(int listingPageSize) {
+        this.listingPageSize = listingPageSize;
+    }
+
+    /**
+     * Sets codecs offered to server by {@code zlist} and {@code zget} queries in order of preference.
+     * Server compresses response with the first of them it knows. Only deflate codec is offered by default.
+     * @param codecs codecs known to the client
+     */
+    public void setCompressionCodecs(@NotNull CompressionCodec... codecs) {
+        for (CompressionCodec codec : codecs) {
+            if (codec.getName().isEmpty() || codec.getName().contains(",")) {
+                throw new IllegalArgumentException("Name of codec should be non-empty and should not contain commas");
+            }
+        }
+        this.compressionCodecs = Arrays.asList(codecs.clone());
+    }
+
+    /**
+     * Runs client. It allows to send eight types of queries:
      * <1: Int> <path: String>       List of all files in the specified directory.
      * <2: Int> <path: String>       Download file from server.
+     * <3: Int> <path: String>       Continue downloading of the partially downloaded file.
+     * <4: Int> <path: String>       Print all files in the specified directory page by page.
+     * <5: Int> <path: String>       List of all files in the specified directory, compressed if possible.
+     * <6: Int> <path: String>       Download file from server, compressed if possible.
+     * <7: Int> <path: String>       Download file from server unless the local file is up to date;
+     *                               sent instead of the second query if the local file exists.
+     * <8: Int> <paths: String...>   Download all files that match the paths or globs at once.
+     * When persistent connection is used, queries that are already available in the input stream
+     * are pipelined: they are sent one after another before responses to them are read.
      */
     public void runClient() {
-        while (reader.hasNext()) {
-            String query = reader.nextLine();
-            String[] args = query.split(" ");
-
-            if (args.length == 1 && args[0].equals("exit")) {
-                System.exit(0);
-            }
-
-            if (args.length != 2 || !args[0].equals("list") && !args[0].equals("get")) {
-                writer.println("Incorrect query format.");
-                writer.println("list <path: String>       List of all files in the specified directory.");
-                writer.println("get  <path: String>       Download file from server.");
-                writer.println("exit                      Exit program.");
-                continue;
-            }
-
-            QueryType type = QueryType.getEnum(args[0]);
-            String path = args[1].trim();
-
-            if (type == null) {
-                writer.println("Unexpected error occurred while reading query type. Try once more");
-                continue;
-            }
-
-            QueryStatus status = processQuery(type, path);
-            switch (status) {
-                case RESPONSE_ERROR:
-                    writer.println("Error occurred while getting response from server.");
-                    writer.println("Check whether your query is correct or try again later.");
-                    break;
-                case CONNECTION_ERROR:
-                    writer.println("Can't connect to server. Try again later.");
-                    break;
-                case FILE_NOT_EXISTS_ERROR:
-                    writer.println("Specified file was not found on server.");
-                    writer.println("Make sure that you have entered correct file name and that it is not a directory");
-                    break;
-                case SUCCESS:
-                    if (type.equals(QueryType.getQuery)) {
-                        writer.println("File was successfully downloaded to the current directory.");
-                    }
-                    break;
+        try {
+            for (String query = reader.readLine(); query != null; query = reader.readLine()) {
+                processLine(query);
+                if (!reader.ready() || pendingQueries.size() >= PIPELINE_DEPTH) {
+                    receiveResponses();
+                }
+            }
+        } catch (IOException e) {
+            writer.println("Error occurred while reading queries.");
+        } finally {
+            receiveResponses();
+            disconnect();
+        }
+    }
+
+    /**
+     * Parses query from the input line and sends it to the server.
+     * @param line line that contains query
+     */
+    private void processLine(@NotNull String line) {
+        String[] args = line.split(" ");
+
+        if (args.length == 1 && args[0].equals("exit")) {
+            receiveResponses();
+            disconnect();
+            System.exit(0);
+        }
+
+        if (args.length < 2 || QueryType.getEnum(args[0]) == null
+                || args.length > 2 && !QueryType.batchGetQuery.equals(QueryType.getEnum(args[0]))) {
+            receiveResponses();
+            writer.println("Incorrect query format.");
+            writer.println("list   <path: String>     List of all files in the specified directory.");
+            writer.println("get    <path: String>     Download file from server.");
+            writer.println("resume <path: String>     Continue downloading of the partially downloaded file.");
+            writer.println("walk   <path: String>     Print all files in the specified directory page by page.");
+            writer.println("zlist  <path: String>     Same as list, but compressed if possible.");
+            writer.println("zget   <path: String>     Same as get, but compressed if possible.");
+            writer.println("mget   <paths: String...> Download all files that match the paths or globs at once.");
+            writer.println("exit                      Exit program.");
+            return;
+        }
+
+        QueryType type = QueryType.getEnum(args[0]);
+        String path = args[1].trim();
+        if (type.equals(QueryType.batchGetQuery)) {
+            path = String.join("\n", Arrays.copyOfRange(args, 1, args.length));
+        }
+
+        PendingQuery query = new PendingQuery(type, path);
+        if (type.equals(QueryType.getRangeQuery)) {
+            query.offset = new File(query.getFilename()).length();
+        }
+        if (type.equals(QueryType.walkQuery)) {
+            query.depth = listingDepth;
+            query.pageSize = listingPageSize;
+        }
+        if (type.equals(QueryType.compressedListQuery) || type.equals(QueryType.compressedGetQuery)) {
+            StringBuilder offered = new StringBuilder();
+            for (CompressionCodec codec : compressionCodecs) {
+                offered.append(offered.length() == 0 ? "" : ",").append(codec.getName());
             }
+            query.codecs = offered.toString();
+        }
+        if (type.equals(QueryType.getQuery) && parallelism <= 1) {
+            query = toConditionalQuery(query);
+        }
+
+        if (type.equals(QueryType.getQuery) && parallelism > 1) {
+            receiveResponses();
+            reportStatus(type, processParallelQuery(query));
+        } else if (type.equals(QueryType.walkQuery)) {
+            receiveResponses();
+            reportStatus(type, processWalkQuery(query));
+        } else if (persistent) {
+            sendQuery(query);
+        } else {
+            reportStatus(type, processQuery(query));
+        }
+    }
+
+    /**
+     * Replaces query to download file with the conditional one if the local file exists already,
+     * so that file is not downloaded again if it was not modified on server.
+     * @param query query to download file
+     * @return conditional query or the specified query if there is no local file or it cannot be read
+     */
+    @NotNull
+    private static PendingQuery toConditionalQuery(@NotNull PendingQuery query) {
+        File local = new File(query.getFilename());
+        if (!local.isFile()) {
+            return query;
+        }
+        try {
+            PendingQuery conditional = new PendingQuery(QueryType.conditionalGetQuery, query.path);
+            conditional.digest = FileDigestCache.computeDigest(local);
+            return conditional;
+        } catch (IOException e) {
+            return query;
         }
     }
 
     /**
-     * Sends specified query to the server and processes server's response.
+     * Prints message that describes result of the query.
      * @param type type of query
-     * @param path path to the file or directory
+     * @param status result of the query
+     */
+    private void reportStatus(@NotNull QueryType type, @NotNull QueryStatus status) {
+        switch (status) {
+            case RESPONSE_ERROR:
+                writer.println("Error occurred while getting response from server.");
+                writer.println("Check whether your query is correct or try again later.");
+                break;
+            case CONNECTION_ERROR:
+                writer.println("Can't connect to server. Try again later.");
+                break;
+            case FILE_NOT_EXISTS_ERROR:
+                writer.println("Specified file was not found on server.");
+                writer.println("Make sure that you have entered correct file name and that it is not a directory");
+                break;
+            case LOCAL_FILE_ERROR:
+                writer.println("Local file is longer than the file on server, so downloading cannot be resumed.");
+                writer.println("Remove local file and download it once more.");
+                break;
+            case LOCAL_WRITE_ERROR:
+                writer.println("Downloaded file cannot be saved to the current directory.");
+                writer.println("Make sure that you have permissions to write to it.");
+                break;
+            case DIGEST_MISMATCH_ERROR:
+                writer.println("Downloaded file does not match its digest on server.");
+                writer.println("File may have been changed while it was downloaded, download it once more.");
+                break;
+            case NOT_MODIFIED:
+                writer.println("Local file is up to date, so it was not downloaded.");
+                break;
+            case SUCCESS:
+                if (type.equals(QueryType.getQuery) || type.equals(QueryType.getRangeQuery)
+                        || type.equals(QueryType.compressedGetQuery) || type.equals(QueryType.conditionalGetQuery)) {
+                    writer.println("File was successfully downloaded to the current directory.");
+                }
+                break;
+        }
+    }
+
+    /**
+     * Sends query over the persistent connection without waiting for response. Opens connection if needed.
+     * @param query specified query
+     */
+    private void sendQuery(@NotNull PendingQuery query) {
+        pendingQueries.add(query);
+        try {
+            if (socket == null) {
+                socket = new Socket(hostName, portNumber);
+                socketInput = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                socketOutput = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                socketOutput.writeInt(FileTransferProtocol.FRAMED_PROTOCOL);
+            }
+            byte[] arguments = query.getArguments();
+            socketOutput.writeInt(query.type.getValue());
+            socketOutput.writeInt(arguments.length);
+            socketOutput.write(arguments);
+        } catch (IOException e) {
+            query.status = QueryStatus.CONNECTION_ERROR;
+            disconnect();
+        }
+    }
+
+    /**
+     * Requests pages of directory listing one by one until server returns the last one.
+     * Should be called when there are no pending queries.
+     * @param query query to list directory
+     * @return result of the query
+     */
+    private QueryStatus processWalkQuery(@NotNull PendingQuery query) {
+        while (true) {
+            QueryStatus status = persistent ? exchangeQuery(query) : processQuery(query);
+            if (status != QueryStatus.SUCCESS || query.cursor.isEmpty()) {
+                return status;
+            }
+        }
+    }
+
+    /**
+     * Sends query over the persistent connection and waits for the response to it.
+     * Should be called when there are no pending queries.
+     * @param query specified query
+     * @return result of the query
+     */
+    private QueryStatus exchangeQuery(@NotNull PendingQuery query) {
+        query.status = null;
+        sendQuery(query);
+        pendingQueries.remove(query);
+        if (query.status != null) {
+            return query.status;
+        }
+        try {
+            socketOutput.flush();
+        } catch (IOException e) {
+            disconnect();
+            return QueryStatus.CONNECTION_ERROR;
+        }
+        return receiveResponse(query);
+    }
+
+    /**
+     * Reads responses to all sent queries in the order they were sent and prints results.
+     * If reading of some response fails, connection is closed and all remaining queries fail too.
+     */
+    private void receiveResponses() {
+        if (socketOutput != null) {
+            try {
+                socketOutput.flush();
+            } catch (IOException e) {
+                disconnect();
+            }
+        }
+
+        for (PendingQuery query = pendingQueries.poll(); query != null; query = pendingQueries.poll()) {
+            if (query.status == null) {
+                query.status = socketInput == null ? QueryStatus.RESPONSE_ERROR : receiveResponse(query);
+            }
+            reportStatus(query.type, query.status);
+        }
+    }
+
+    private QueryStatus receiveResponse(@NotNull PendingQuery query) {
+        try {
+            return readResponse(query, socketInput, true);
+        } catch (IOException e) {
+            disconnect();
+            return QueryStatus.RESPONSE_ERROR;
+        }
+    }
+
+    /**
+     * Reads response to the specified query.
+     * @param query specified query
+     * @param dataInput stream that allows to read server's response
+     * @param framed whether response is received over the framed connection
+     * @return result of the query
+     * @throws IOException if any error occurred while getting response from server
      */
-    private QueryStatus processQuery(QueryType type, @NotNull String path) {
+    private QueryStatus readResponse(@NotNull PendingQuery query, @NotNull DataInputStream dataInput, boolean framed)
+            throws IOException {
+        try {
+            if (query.type.equals(QueryType.listQuery)) {
+                listFiles(dataInput, framed);
+            } else if (query.type.equals(QueryType.getQuery)) {
+                saveFile(dataInput, query.getFilename(), framed);
+            } else if (query.type.equals(QueryType.walkQuery)) {
+                query.cursor = walkFiles(dataInput);
+            } else if (query.type.equals(QueryType.compressedListQuery)) {
+                listCompressedFiles(dataInput);
+            } else if (query.type.equals(QueryType.compressedGetQuery)) {
+                saveCompressedFile(dataInput, query.getFilename(), framed);
+            } else if (query.type.equals(QueryType.batchGetQuery)) {
+                saveFiles(dataInput, framed);
+            } else if (query.type.equals(QueryType.conditionalGetQuery)) {
+                if (!updateFile(dataInput, query.getFilename(), query.digest, framed)) {
+                    return QueryStatus.NOT_MODIFIED;
+                }
+            } else {
+                resumeFile(dataInput, query.getFilename(), query.offset, framed);
+            }
+        } catch (FileNotExistsException e) {
+            return QueryStatus.FILE_NOT_EXISTS_ERROR;
+        } catch (LocalFileMismatchException e) {
+            return QueryStatus.LOCAL_FILE_ERROR;
+        } catch (DigestMismatchException e) {
+            return QueryStatus.DIGEST_MISMATCH_ERROR;
+        }
+        return QueryStatus.SUCCESS;
+    }
+
+    /**
+     * Closes persistent connection if it is opened.
+     */
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        socket = null;
+        socketInput = null;
+        socketOutput = null;
+    }
+
+    /**
+     * Sends specified query to the server over a new connection and processes server's response.
+     * @param query specified query
+     */
+    private QueryStatus processQuery(@NotNull PendingQuery query) {
         try (Socket socket = new Socket(hostName, portNumber);
              DataInputStream dataInput = new DataInputStream(socket.getInputStream());
              DataOutputStream dataOutput = new DataOutputStream(socket.getOutputStream())
         ) {
-            dataOutput.writeInt(type.getValue());
-            dataOutput.write(path.getBytes());
+            dataOutput.writeInt(query.type.getValue());
+            dataOutput.write(query.getArguments());
             dataOutput.flush();
 
             socket.shutdownOutput();
 
             try {
-                if (type.equals(QueryType.listQuery)) {
-                    listFiles(dataInput);
-                } else {
-                    try {
-                        saveFile(dataInput, new File(path).getName());
-                    } catch (FileNotExistsException e) {
-                        return QueryStatus.FILE_NOT_EXISTS_ERROR;
-                    }
+                return readResponse(query, dataInput, false);
+            } catch (IOException e) {
+                return QueryStatus.RESPONSE_ERROR;
+            }
+        } catch (IOException e) {
+            return QueryStatus.CONNECTION_ERROR;
+        }
+    }
+
+    /**
+     * Downloads file over several concurrent connections. Size of file is requested first, then temporary file
+     * of the same size is created and ranges of file are downloaded and written to their positions in it.
+     * The temporary file replaces the local file only if every range was downloaded, otherwise it is deleted.
+     * @param query query to download file
+     * @return result of the query
+     */
+    private QueryStatus processParallelQuery(@NotNull PendingQuery query) {
+        long size;
+        try (Socket socket = new Socket(hostName, portNumber);
+             DataInputStream dataInput = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream dataOutput = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))
+        ) {
+            try {
+                dataOutput.writeInt(FileTransferProtocol.FRAMED_PROTOCOL);
+                writeRangeQuery(dataOutput, query.path, 0, 0);
+                dataOutput.flush();
+
+                size = dataInput.readLong();
+                if (size < 0) {
+                    return QueryStatus.FILE_NOT_EXISTS_ERROR;
+                }
+                if (dataInput.readLong() != 0) {
+                    return QueryStatus.RESPONSE_ERROR;
                 }
             } catch (IOException e) {
                 return QueryStatus.RESPONSE_ERROR;
@@ -149,53 +540,575 @@ public class Client {
         } catch (IOException e) {
             return QueryStatus.CONNECTION_ERROR;
         }
-        return QueryStatus.SUCCESS;
+
+        String filename = query.getFilename();
+        File part = new File(filename + PART_SUFFIX);
+        QueryStatus status;
+        try (FileChannel file = FileChannel.open(part.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+        ) {
+            if (size > 0) {
+                file.write(ByteBuffer.allocate(1), size - 1);
+            }
+            status = downloadRanges(query.path, file, size);
+        } catch (IOException e) {
+            System.err.println("File " + part + " cannot be created or you don't have permissions to write to it");
+            System.err.println(e.getMessage());
+            status = QueryStatus.LOCAL_WRITE_ERROR;
+        }
+
+        if (status == QueryStatus.SUCCESS) {
+            try {
+                Files.move(part.toPath(), new File(filename).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                System.err.println("File " + part + " cannot be renamed to " + filename);
+                System.err.println(e.getMessage());
+                status = QueryStatus.LOCAL_WRITE_ERROR;
+            }
+        }
+        if (status != QueryStatus.SUCCESS) {
+            part.delete();
+        }
+        return status;
+    }
+
+    /**
+     * Starts downloaders that take ranges of file one by one and waits until all of them finish.
+     * @param path path to the file on server
+     * @param file local file to write ranges to
+     * @param size size of file
+     * @return result of the download
+     */
+    private QueryStatus downloadRanges(@NotNull String path, @NotNull FileChannel file, long size) {
+        int connections = (int) Math.min(parallelism, (size + chunkSize - 1) / chunkSize);
+        if (connections == 0) {
+            return QueryStatus.SUCCESS;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        AtomicLong nextOffset = new AtomicLong(0);
+        List<Future<QueryStatus>> results = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            results.add(executor.submit(new RangeDownloader(path, file, size, nextOffset)));
+        }
+        executor.shutdown();
+
+        QueryStatus status = QueryStatus.SUCCESS;
+        for (Future<QueryStatus> result : results) {
+            try {
+                QueryStatus rangeStatus = result.get();
+                if (status == QueryStatus.SUCCESS) {
+                    status = rangeStatus;
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                status = QueryStatus.RESPONSE_ERROR;
+            }
+            if (status != QueryStatus.SUCCESS) {
+                nextOffset.set(size);
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Writes framed query for the specified range of file.
+     * @param dataOutput stream to write query to
+     * @param path path to the file on server
+     * @param offset position of the first requested byte
+     * @param length number of requested bytes
+     * @throws IOException if query cannot be written
+     */
+    private static void writeRangeQuery(@NotNull DataOutputStream dataOutput, @NotNull String path, long offset,
+                                        long length) throws IOException {
+        byte[] pathBytes = path.getBytes();
+        dataOutput.writeInt(QueryType.getRangeQuery.getValue());
+        dataOutput.writeInt(2 * Long.BYTES + pathBytes.length);
+        dataOutput.writeLong(offset);
+        dataOutput.writeLong(length);
+        dataOutput.write(pathBytes);
+    }
+
+    /**
+     * Downloads ranges of file over its own connection until the whole file is distributed between downloaders.
+     */
+    private class RangeDownloader implements Callable<QueryStatus> {
+
+        private final String path;
+        private final FileChannel file;
+        private final long size;
+        private final AtomicLong nextOffset;
+        private final byte[] buffer = new byte[16 * BUFFER_SIZE];
+
+        private RangeDownloader(@NotNull String path, @NotNull FileChannel file, long size,
+                                @NotNull AtomicLong nextOffset) {
+            this.path = path;
+            this.file = file;
+            this.size = size;
+            this.nextOffset = nextOffset;
+        }
+
+        @Override
+        public QueryStatus call() {
+            try (Socket socket = new Socket(hostName, portNumber);
+                 DataInputStream dataInput = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                 DataOutputStream dataOutput = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))
+            ) {
+                dataOutput.writeInt(FileTransferProtocol.FRAMED_PROTOCOL);
+                try {
+                    for (long offset = nextOffset.getAndAdd(chunkSize); offset < size;
+                         offset = nextOffset.getAndAdd(chunkSize)) {
+                        downloadRange(dataInput, dataOutput, offset, Math.min(chunkSize, size - offset));
+                    }
+                } catch (FileNotExistsException e) {
+                    return QueryStatus.FILE_NOT_EXISTS_ERROR;
+                } catch (IOException e) {
+                    return QueryStatus.RESPONSE_ERROR;
+                }
+            } catch (IOException e) {
+                return QueryStatus.CONNECTION_ERROR;
+            }
+            return QueryStatus.SUCCESS;
+        }
+
+        private void downloadRange(@NotNull DataInputStream dataInput, @NotNull DataOutputStream dataOutput,
+                                   long offset, long length) throws IOException {
+            writeRangeQuery(dataOutput, path, offset, length);
+            dataOutput.flush();
+
+            long fileSize = dataInput.readLong();
+            if (fileSize < 0) {
+                throw new FileNotExistsException();
+            }
+            if (fileSize != size || dataInput.readLong() != length) {
+                throw new FileTransferProtocolException();
+            }
+
+            long position = offset;
+            while (length > 0) {
+                int read = dataInput.read(buffer, 0, (int) Math.min(buffer.length, length));
+                if (read == -1) {
+                    throw new FileTransferProtocolException();
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                while (bytes.hasRemaining()) {
+                    position += file.write(bytes, position);
+                }
+                length -= read;
+            }
+        }
     }
 
     /**
      * Processes response to the first type of query. Prints list of files in the directory from query.
      * @param dataInput stream that allows to read server's response
+     * @param framed whether response is received over the framed connection
      * @throws IOException if any error occurred while getting response from server
      */
-    private void listFiles(@NotNull DataInputStream dataInput) throws IOException {
+    private void listFiles(@NotNull DataInputStream dataInput, boolean framed) throws IOException {
         int size = dataInput.readInt();
         StringBuilder result = new StringBuilder();
-        for (int read = dataInput.read(buffer); read != -1; read = dataInput.read(buffer)) {
-            result.append(new String(buffer, 0, read));
+        if (framed) {
+            byte[] list = new byte[dataInput.readInt()];
+            dataInput.readFully(list);
+            result.append(new String(list));
+        } else {
+            for (int read = dataInput.read(buffer); read != -1; read = dataInput.read(buffer)) {
+                result.append(new String(buffer, 0, read));
+            }
         }
 
         writer.println(size);
         writer.println(result.toString());
     }
 
+    /**
+     * Processes response to the fifth type of query. Decompresses list of files in the directory from query
+     * and prints it followed by statistics of decompression.
+     * @param dataInput stream that allows to read server's response
+     * @throws IOException if any error occurred while getting response from server
+     */
+    private void listCompressedFiles(@NotNull DataInputStream dataInput) throws IOException {
+        int size = dataInput.readInt();
+        String codecName = dataInput.readUTF();
+        byte[] list;
+        Compression.Statistics statistics = null;
+        if (codecName.isEmpty()) {
+            list = new byte[dataInput.readInt()];
+            dataInput.readFully(list);
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            statistics = Compression.decode(dataInput, getCompressionCodec(codecName), bytes);
+            list = bytes.toByteArray();
+        }
+
+        writer.println(size);
+        writer.println(new String(list));
+        if (statistics != null) {
+            reportCompression(codecName, statistics);
+        }
+    }
+
+    /**
+     * Processes response to the fourth type of query. Prints entries of the page as they are received.
+     * @param dataInput stream that allows to read server's response
+     * @return cursor to request the next page or empty string if this page is the last one
+     * @throws IOException if any error occurred while getting response from server
+     */
+    private String walkFiles(@NotNull DataInputStream dataInput) throws IOException {
+        while (dataInput.readBoolean()) {
+            String path = dataInput.readUTF();
+            writer.println(path + " " + dataInput.readBoolean());
+        }
+        return dataInput.readUTF();
+    }
+
     /**
      * Processes response to the second type of query. Downloads file from server and saves it locally to
      * the file with the same name.
      * @param dataInput stream that allows to read server's response
      * @param filename name of file to be saved locally
+     * @param framed whether response is received over the framed connection, so that nothing should be read
+     *               after the end of file; such response contains digest of file that is verified, either
+     *               before or after the content of file
      * @throws IOException if any error occurred while getting response from server
      */
-    private void saveFile(@NotNull DataInputStream dataInput, @NotNull String filename) throws IOException {
+    private void saveFile(@NotNull DataInputStream dataInput, @NotNull String filename, boolean framed)
+            throws IOException {
         long size = dataInput.readLong();
 
         if (size < 0) {
             throw new FileNotExistsException();
         }
-        if (size == 0) {
+        if (!framed) {
+            receiveFile(dataInput, filename, size, false, false, false);
             return;
         }
 
-        try (DataOutputStream dataOutput = new DataOutputStream(new FileOutputStream(new File(filename)))) {
-            for (int read = dataInput.read(buffer); read != -1; read = dataInput.read(buffer)) {
+        byte[] expectedDigest = dataInput.readBoolean() ? readDigest(dataInput) : null;
+        byte[] digest = receiveFile(dataInput, filename, size, false, true, true);
+        if (expectedDigest == null) {
+            expectedDigest = readDigest(dataInput);
+        }
+        verifyDigest(filename, digest, expectedDigest);
+    }
+
+    /**
+     * Reads digest of file from server's response.
+     * @param dataInput stream that allows to read server's response
+     * @return digest of file on server
+     * @throws IOException if any error occurred while getting response from server
+     */
+    @NotNull
+    private static byte[] readDigest(@NotNull DataInputStream dataInput) throws IOException {
+        byte[] digest = new byte[FileDigestCache.DIGEST_LENGTH];
+        dataInput.readFully(digest);
+        return digest;
+    }
+
+    /**
+     * Checks that downloaded file matches its digest on server. Mismatching file is deleted, so that
+     * it is not mistaken for the downloaded one and its download is not resumed.
+     * @param filename name of the downloaded file
+     * @param digest digest of the received bytes
+     * @param expectedDigest digest of file on server
+     * @throws DigestMismatchException if digests differ
+     */
+    private void verifyDigest(@NotNull String filename, @Nullable byte[] digest, @NotNull byte[] expectedDigest)
+            throws DigestMismatchException {
+        if (!Arrays.equals(digest, expectedDigest)) {
+            new File(filename).delete();
+            throw new DigestMismatchException();
+        }
+    }
+
+    /**
+     * Processes response to the eighth type of query. Saves every file as soon as it is received, so that
+     * only one file of the response is opened at a time. Names of files may contain directories, which
+     * are created in the current directory.
+     * @param dataInput stream that allows to read server's response
+     * @param framed whether response is received over the framed connection, so that nothing should be read
+     *               after the end of response
+     * @throws IOException if any error occurred while getting response from server
+     */
+    private void saveFiles(@NotNull DataInputStream dataInput, boolean framed) throws IOException {
+        int count = 0;
+        while (dataInput.readBoolean()) {
+            String name = dataInput.readUTF();
+            long size = dataInput.readLong();
+            if (size < 0 || !isRelativeName(name)) {
+                throw new FileTransferProtocolException();
+            }
+
+            File local = new File(name);
+            File parent = local.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                System.err.println("Directory " + parent + " cannot be created");
+            }
+            receiveFile(dataInput, local.getPath(), size, false, true, false);
+            count++;
+        }
+        if (!framed && dataInput.read() != -1) {
+            throw new FileTransferProtocolException();
+        }
+        if (count == 0) {
+            throw new FileNotExistsException();
+        }
+        writer.println(count + " files were successfully downloaded to the current directory.");
+    }
+
+    /**
+     * Checks that name of received file does not point outside of the current directory.
+     * @param name name of file sent by server
+     * @return {@code true} if file may be saved with this name; {@code false} otherwise
+     */
+    private static boolean isRelativeName(@NotNull String name) {
+        if (name.isEmpty() || name.startsWith("/") || new File(name).isAbsolute()) {
+            return false;
+        }
+        for (String part : name.replace('\\', '/').split("/")) {
+            if (part.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Processes response to the seventh type of query. Downloads file from server and saves it locally
+     * unless the local file has the same digest.
+     * @param dataInput stream that allows to read server's response
+     * @param filename name of file to be saved locally
+     * @param localDigest digest of the local file that was sent to server
+     * @param framed whether response is received over the framed connection, so that nothing should be read
+     *               after the end of file
+     * @return {@code true} if file was downloaded; {@code false} if the local file is up to date
+     * @throws IOException if any error occurred while getting response from server
+     */
+    private boolean updateFile(@NotNull DataInputStream dataInput, @NotNull String filename,
+                               @NotNull byte[] localDigest, boolean framed) throws IOException {
+        long size = dataInput.readLong();
+
+        if (size < 0) {
+            throw new FileNotExistsException();
+        }
+
+        byte[] digest = readDigest(dataInput);
+        if (Arrays.equals(digest, localDigest)) {
+            if (!framed && dataInput.read() != -1) {
+                throw new FileTransferProtocolException();
+            }
+            return false;
+        }
+        verifyDigest(filename, receiveFile(dataInput, filename, size, false, framed, true), digest);
+        return true;
+    }
+
+    /**
+     * Processes response to the sixth type of query. Downloads file from server, decompressing it if needed,
+     * and saves it locally to the file with the same name.
+     * @param dataInput stream that allows to read server's response
+     * @param filename name of file to be saved locally
+     * @param framed whether response is received over the framed connection, so that nothing should be read
+     *               after the end of file
+     * @throws IOException if any error occurred while getting response from server
+     */
+    private void saveCompressedFile(@NotNull DataInputStream dataInput, @NotNull String filename, boolean framed)
+            throws IOException {
+        long size = dataInput.readLong();
+
+        if (size < 0) {
+            throw new FileNotExistsException();
+        }
+
+        String codecName = dataInput.readUTF();
+        if (codecName.isEmpty()) {
+            receiveFile(dataInput, filename, size, false, framed, false);
+            return;
+        }
+
+        CompressionCodec codec = getCompressionCodec(codecName);
+        OutputStream dataOutput = openLocalFile(filename, false);
+        Compression.Statistics statistics;
+        try {
+            statistics = Compression.decode(dataInput, codec, dataOutput);
+            if (statistics.rawBytes != size || !framed && dataInput.read() != -1) {
+                throw new FileTransferProtocolException();
+            }
+        } finally {
+            if (dataOutput != null) {
+                dataOutput.close();
+            }
+        }
+        reportCompression(codecName, statistics);
+    }
+
+    /**
+     * Finds offered codec that was chosen by server.
+     * @param name name of the codec
+     * @return codec with the specified name
+     * @throws FileTransferProtocolException if such codec was not offered
+     */
+    @NotNull
+    private CompressionCodec getCompressionCodec(@NotNull String name) throws FileTransferProtocolException {
+        for (CompressionCodec codec : compressionCodecs) {
+            if (codec.getName().equals(name)) {
+                return codec;
+            }
+        }
+        throw new FileTransferProtocolException();
+    }
+
+    /**
+     * Prints compression ratio and CPU time spent on decompression of the response.
+     * @param codecName name of codec the response was compressed with
+     * @param statistics statistics of decompression
+     */
+    private void reportCompression(@NotNull String codecName, @NotNull Compression.Statistics statistics) {
+        writer.println("Decompressed with " + codecName + ": " + statistics);
+    }
+
+    /**
+     * Processes response to the third type of query. Downloads the rest of file from server and appends it
+     * to the local file with the same name.
+     * @param dataInput stream that allows to read server's response
+     * @param filename name of file to be saved locally
+     * @param offset number of bytes that are already downloaded
+     * @param framed whether response is received over the framed connection, so that nothing should be read
+     *               after the end of file
+     * @throws IOException if any error occurred while getting response from server
+     */
+    private void resumeFile(@NotNull DataInputStream dataInput, @NotNull String filename, long offset,
+                            boolean framed) throws IOException {
+        long size = dataInput.readLong();
+
+        if (size < 0) {
+            throw new FileNotExistsException();
+        }
+
+        long count = dataInput.readLong();
+        if (offset > size) {
+            if (count != 0) {
+                throw new FileTransferProtocolException();
+            }
+            throw new LocalFileMismatchException();
+        }
+        if (offset + count != size) {
+            throw new FileTransferProtocolException();
+        }
+
+        receiveFile(dataInput, filename, count, true, framed, false);
+    }
+
+    /**
+     * Reads the specified number of bytes from server's response and writes them to the local file.
+     * @param dataInput stream that allows to read server's response
+     * @param filename name of file to be saved locally
+     * @param size number of bytes to be read
+     * @param append whether bytes should be appended to the end of the local file
+     * @param framed whether response is received over the framed connection, so that nothing should be read
+     *               after the end of file
+     * @param digested whether digest of the received bytes should be computed
+     * @return digest of the received bytes or {@code null} if it was not requested
+     * @throws IOException if any error occurred while getting response from server
+     */
+    @Nullable
+    private byte[] receiveFile(@NotNull DataInputStream dataInput, @NotNull String filename, long size,
+                               boolean append, boolean framed, boolean digested) throws IOException {
+        MessageDigest digest = digested ? FileDigestCache.newMessageDigest() : null;
+        OutputStream dataOutput = openLocalFile(filename, append);
+        try {
+            while (size > 0) {
+                int read = dataInput.read(buffer, 0, (int) Math.min(buffer.length, size));
+                if (read == -1) {
+                    throw new FileTransferProtocolException();
+                }
                 size -= read;
-                dataOutput.write(buffer, 0, read);
+                if (dataOutput != null) {
+                    dataOutput.write(buffer, 0, read);
+                }
+                if (digest != null) {
+                    digest.update(buffer, 0, read);
+                }
             }
-            if (size != 0) {
+            if (!framed && dataInput.read() != -1) {
                 throw new FileTransferProtocolException();
             }
+            return digest == null ? null : digest.digest();
+        } finally {
+            if (dataOutput != null) {
+                dataOutput.close();
+            }
+        }
+    }
+
+    /**
+     * Opens local file for writing downloaded data.
+     * @param filename name of the local file
+     * @param append whether data should be appended to the end of the file
+     * @return stream to write data to or {@code null} if file cannot be opened
+     */
+    private static OutputStream openLocalFile(@NotNull String filename, boolean append) {
+        try {
+            return new FileOutputStream(new File(filename), append);
         } catch (FileNotFoundException e) {
             System.err.println("File " + filename + " cannot be created or you don't have permissions to write to it");
             System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Query that is sent over the persistent connection and waits for the response.
+     */
+    private static class PendingQuery {
+        private final QueryType type;
+        private final String path;
+        private long offset = 0;
+        private int depth = 0;
+        private int pageSize = 0;
+        private String cursor = "";
+        private String codecs = "";
+        private byte[] digest = null;
+        private QueryStatus status;
+
+        private PendingQuery(@NotNull QueryType type, @NotNull String path) {
+            this.type = type;
+            this.path = path;
+        }
+
+        /**
+         * Returns name of the local file the query downloads to.
+         * @return name of the local file
+         */
+        private String getFilename() {
+            return new File(path).getName();
+        }
+
+        /**
+         * Encodes arguments of the query as they are sent to server.
+         * @return encoded arguments
+         * @throws IOException if arguments cannot be encoded
+         */
+        private byte[] getArguments() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream arguments = new DataOutputStream(bytes);
+            if (type.equals(QueryType.getRangeQuery)) {
+                arguments.writeLong(offset);
+                arguments.writeLong(-1);
+            }
+            if (type.equals(QueryType.walkQuery)) {
+                arguments.writeInt(depth);
+                arguments.writeInt(pageSize);
+                arguments.writeUTF(cursor);
+            }
+            if (type.equals(QueryType.compressedListQuery) || type.equals(QueryType.compressedGetQuery)) {
+                arguments.writeUTF(codecs);
+            }
+            if (type.equals(QueryType.conditionalGetQuery)) {
+                arguments.write(digest);
+            }
+            arguments.write(path.getBytes());
+            return bytes.toByteArray();
         }
     }
 
@@ -208,6 +1121,24 @@ public class Client {
         }
     }
 
+    /**
+     * Is thrown if local file cannot be continued with the file on server.
+     */
+    private class LocalFileMismatchException extends IOException {
+        private LocalFileMismatchException() {
+            super("Local file is longer than the file on server");
+        }
+    }
+
+    /**
+     * Is thrown if downloaded file differs from the file on server.
+     */
+    private class DigestMismatchException extends IOException {
+        private DigestMismatchException() {
+            super("Digest of downloaded file differs from the digest of file on server");
+        }
+    }
+
     /**
      * Is thrown is specified file was not found on server.
      */
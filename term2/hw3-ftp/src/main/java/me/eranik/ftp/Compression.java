@@ -0,0 +1,242 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Encoding of compressed responses. Compressed data is sent as a sequence of blocks, each written as
+ * {@code <raw length: Int> <encoded length: Int> <bytes>}, and ends with a block of zero raw length.
+ * Block which encoded length equals its raw length is stored without compression, so incompressible
+ * parts of data cost only eight bytes per block.
+ */
+final class Compression {
+
+    /**
+     * Number of bytes compressed at once by the server.
+     */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Maximum raw length of the block accepted by the client.
+     */
+    static final int MAX_BLOCK_SIZE = FileTransferProtocol.MAX_FRAME_LENGTH;
+
+    /**
+     * Extensions of files that are compressed already, so they are always sent as is.
+     */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "jar", "zst", "lz4",
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "mkv", "avi", "mov", "ogg", "flac",
+            "pdf", "docx", "xlsx", "pptx"));
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private Compression() {
+    }
+
+    /**
+     * Chooses codec for the response.
+     * @param codecs codecs known to the server by their names
+     * @param offered comma-separated names of codecs known to the client in order of its preference
+     * @return the first offered codec known to the server or {@code null} if there is no such codec
+     */
+    @Nullable
+    static CompressionCodec negotiate(@NotNull Map<String, CompressionCodec> codecs, @NotNull String offered) {
+        for (String name : offered.split(",")) {
+            CompressionCodec codec = codecs.get(name.trim());
+            if (codec != null) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the file is compressed already judging by its extension.
+     * @param file specified file
+     * @return {@code true} if compressing the file is useless; {@code false} otherwise
+     */
+    static boolean isCompressed(@NotNull File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot != -1 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase());
+    }
+
+    /**
+     * Returns CPU time consumed by the current thread or wall-clock time if CPU time is not supported.
+     * @return time in nanoseconds
+     */
+    static long cpuTime() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * Reads compressed blocks up to the terminating one and writes decompressed data.
+     * @param input stream to read blocks from
+     * @param codec codec that was used to compress blocks
+     * @param output stream to write decompressed data to or {@code null} if data should be skipped
+     * @return statistics of decompression
+     * @throws IOException if blocks cannot be read or are corrupted
+     */
+    @NotNull
+    static Statistics decode(@NotNull DataInputStream input, @NotNull CompressionCodec codec,
+                             @Nullable OutputStream output) throws IOException {
+        Statistics statistics = new Statistics();
+        byte[] encoded = new byte[BLOCK_SIZE];
+        byte[] raw = new byte[BLOCK_SIZE];
+        while (true) {
+            int rawLength = input.readInt();
+            int encodedLength = input.readInt();
+            if (rawLength < 0 || rawLength > MAX_BLOCK_SIZE || encodedLength < 0 || encodedLength > rawLength) {
+                throw new CompressedDataException();
+            }
+            statistics.encodedBytes += 2 * Integer.BYTES + encodedLength;
+            if (rawLength == 0) {
+                return statistics;
+            }
+            if (raw.length < rawLength) {
+                encoded = new byte[rawLength];
+                raw = new byte[rawLength];
+            }
+
+            input.readFully(encoded, 0, encodedLength);
+            byte[] block = encoded;
+            if (encodedLength < rawLength) {
+                long start = cpuTime();
+                codec.decompress(encoded, encodedLength, raw, rawLength);
+                statistics.cpuNanos += cpuTime() - start;
+                block = raw;
+            }
+            if (output != null) {
+                output.write(block, 0, rawLength);
+            }
+            statistics.rawBytes += rawLength;
+        }
+    }
+
+    /**
+     * Compresses data block by block as the response is written. Logs statistics of compression when it is closed.
+     */
+    static class Encoder implements Closeable {
+
+        private final Logger logger = Logger.getGlobal();
+        private final InputStream source;
+        private final CompressionCodec codec;
+        private final String name;
+
+        private final byte[] raw = new byte[BLOCK_SIZE];
+        private final byte[] encoded = new byte[BLOCK_SIZE];
+        private final ByteBuffer block = ByteBuffer.allocate(2 * Integer.BYTES + BLOCK_SIZE);
+        private final Statistics statistics = new Statistics();
+        private boolean finished = false;
+        private boolean closed = false;
+
+        /**
+         * Creates encoder of the specified data.
+         * @param source stream of data to be compressed; it is closed together with encoder
+         * @param codec codec to compress data with
+         * @param name name of data that is used in log
+         */
+        Encoder(@NotNull InputStream source, @NotNull CompressionCodec codec, @NotNull String name) {
+            this.source = source;
+            this.codec = codec;
+            this.name = name;
+        }
+
+        /**
+         * Compresses the next block of data. Returned buffer is reused by the next call, so it should
+         * be written completely before that.
+         * @return buffer that contains the encoded block or {@code null} if terminating block was returned already
+         * @throws IOException if data cannot be read
+         */
+        @Nullable
+        ByteBuffer nextBlock() throws IOException {
+            if (finished) {
+                return null;
+            }
+
+            int length = 0;
+            for (int read = 0; read != -1 && length < raw.length; read = source.read(raw, length, raw.length - length)) {
+                length += read;
+            }
+
+            block.clear();
+            block.putInt(length);
+            if (length == 0) {
+                finished = true;
+                block.putInt(0);
+            } else {
+                long start = cpuTime();
+                int size = codec.compress(raw, length, encoded);
+                statistics.cpuNanos += cpuTime() - start;
+                if (size >= 0 && size < length) {
+                    block.putInt(size).put(encoded, 0, size);
+                } else {
+                    block.putInt(length).put(raw, 0, length);
+                }
+            }
+            block.flip();
+
+            statistics.rawBytes += length;
+            statistics.encodedBytes += block.remaining();
+            return block;
+        }
+
+        /**
+         * Closes source of data and logs statistics of compression.
+         * @throws IOException if source cannot be closed
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            source.close();
+            logger.info("Compressed " + name + " with " + codec.getName() + ": " + statistics);
+        }
+    }
+
+    /**
+     * Amount of data and CPU time spent on compression or decompression.
+     */
+    static class Statistics {
+        long rawBytes = 0;
+        long encodedBytes = 0;
+        long cpuNanos = 0;
+
+        /**
+         * Returns how many times data became smaller.
+         * @return ratio of raw size to encoded size
+         */
+        double getRatio() {
+            return encodedBytes == 0 ? 1 : (double) rawBytes / encodedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d bytes sent as %d bytes (ratio %.2f), %.3f ms of CPU time",
+                    rawBytes, encodedBytes, getRatio(), cpuNanos / 1e6);
+        }
+    }
+
+    /**
+     * Is thrown when compressed blocks do not satisfy the format.
+     */
+    static class CompressedDataException extends IOException {
+        CompressedDataException() {
+            super("Compressed data does not match the format");
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Algorithm that may be used to compress responses. Client offers names of codecs it knows
+ * and server chooses the first one it knows too. Data is compressed by independent blocks,
+ * so implementations should be stateless and may be used from many threads at once.
+ */
+public interface CompressionCodec {
+
+    /**
+     * Returns name that identifies the codec during negotiation. Should not contain commas.
+     * @return name of the codec
+     */
+    @NotNull String getName();
+
+    /**
+     * Compresses the block of data.
+     * @param input array that contains the block
+     * @param length length of the block
+     * @param output array to write compressed data to
+     * @return number of bytes written to output or {@code -1} if compressed data does not fit into it
+     */
+    int compress(@NotNull byte[] input, int length, @NotNull byte[] output);
+
+    /**
+     * Decompresses the block of data.
+     * @param input array that contains compressed block
+     * @param length length of compressed block
+     * @param output array to write decompressed data to
+     * @param rawLength length of decompressed block
+     * @throws IOException if compressed data is corrupted or its decompressed length differs from the expected one
+     */
+    void decompress(@NotNull byte[] input, int length, @NotNull byte[] output, int rawLength) throws IOException;
+}
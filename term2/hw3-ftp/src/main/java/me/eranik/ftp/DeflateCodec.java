@@ -0,0 +1,95 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Codec that compresses data with deflate algorithm from {@link java.util.zip}.
+ * Every thread keeps its own deflater and inflater, so they are not created for each block.
+ */
+public class DeflateCodec implements CompressionCodec {
+
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * Creates codec with the default compression level.
+     */
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates codec with the specified compression level.
+     * @param level compression level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION};
+     *              lower levels are faster, higher levels compress better
+     */
+    public DeflateCodec(int level) {
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+                && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level should be from 0 to 9");
+        }
+        deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @NotNull
+    public String getName() {
+        return "deflate";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int compress(@NotNull byte[] input, int length, @NotNull byte[] output) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == output.length) {
+                return -1;
+            }
+            size += deflater.deflate(output, size, output.length - size);
+        }
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void decompress(@NotNull byte[] input, int length, @NotNull byte[] output, int rawLength)
+            throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(input, 0, length);
+
+        int size = 0;
+        try {
+            while (size < rawLength) {
+                int inflated = inflater.inflate(output, size, rawLength - size);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+        if (size != rawLength) {
+            throw new ZipException("Compressed block is shorter than expected");
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Walks directory tree in the same order as {@link FileTransferProtocol#getDirectoryTree} does, but writes
+ * entries to the stream as soon as they are found and stops after the page is full.
+ * Only names of one directory level are kept in memory at a time.
+ * <p>
+ * Walk may be continued from cursor, which is the path of the last entry of the previous page. Walker then
+ * descends directly to that entry, so the cost of a page does not depend on the number of pages before it.
+ */
+class DirectoryWalker {
+
+    private final DataOutputStream output;
+    private final int maxDepth;
+    private int remaining;
+    private String last;
+
+    /**
+     * Creates walker that writes entries to the specified stream.
+     * @param output stream to write entries to
+     * @param maxDepth maximum depth of listed entries, children of the root have depth one;
+     *                 non-positive value means that depth is not limited
+     * @param limit maximum number of entries in the page
+     */
+    DirectoryWalker(@NotNull DataOutputStream output, int maxDepth, int limit) {
+        this.output = output;
+        this.maxDepth = maxDepth;
+        this.remaining = limit;
+    }
+
+    /**
+     * Writes next page of the directory tree of the specified directory. Each entry is written as
+     * {@code <true: Boolean> <path: UTF> <is directory: Boolean>}.
+     * @param root specified directory
+     * @param cursor path of the last entry of the previous page or empty string to start from the beginning
+     * @return cursor to continue walk from or empty string if all entries are written
+     * @throws FileTransferProtocol.FileTransferProtocolException if cursor does not belong to the specified directory
+     * @throws IOException if entries cannot be written
+     */
+    @NotNull
+    String walk(@NotNull File root, @NotNull String cursor) throws IOException {
+        Path start = null;
+        if (!cursor.isEmpty()) {
+            Path rootPath = root.toPath();
+            Path cursorPath = Paths.get(cursor);
+            if (!cursorPath.startsWith(rootPath) || cursorPath.equals(rootPath)) {
+                throw new FileTransferProtocol.FileTransferProtocolException();
+            }
+            start = rootPath.relativize(cursorPath);
+        }
+        return root.isDirectory() && !walk(root, 1, start) ? last : "";
+    }
+
+    /**
+     * Writes entries of the directory tree of the specified directory.
+     * @param directory specified directory
+     * @param depth depth of children of the specified directory
+     * @param start path of the last written entry relative to the specified directory
+     *              or {@code null} if directory should be listed from the beginning
+     * @return {@code true} if all entries are written; {@code false} if the page is full
+     * @throws IOException if entries cannot be written
+     */
+    private boolean walk(@NotNull File directory, int depth, @Nullable Path start) throws IOException {
+        List<String> names = readNames(directory);
+
+        int index = 0;
+        if (start != null) {
+            String first = start.getName(0).toString();
+            index = Collections.binarySearch(names, first);
+            if (index >= 0) {
+                File child = new File(directory, first);
+                Path rest = start.getNameCount() > 1 ? start.subpath(1, start.getNameCount()) : null;
+                if (isExpanded(child, depth) && !walk(child, depth + 1, rest)) {
+                    return false;
+                }
+                index++;
+            } else {
+                index = -index - 1;
+            }
+        }
+
+        for (; index < names.size(); index++) {
+            File child = new File(directory, names.get(index));
+            if (!write(child)) {
+                return false;
+            }
+            if (isExpanded(child, depth) && !walk(child, depth + 1, null)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isExpanded(@NotNull File child, int depth) {
+        return (maxDepth <= 0 || depth < maxDepth) && child.isDirectory();
+    }
+
+    private boolean write(@NotNull File entry) throws IOException {
+        if (remaining == 0) {
+            return false;
+        }
+        remaining--;
+        last = entry.getPath();
+        output.writeBoolean(true);
+        output.writeUTF(last);
+        output.writeBoolean(entry.isDirectory());
+        return true;
+    }
+
+    /**
+     * Reads sorted names of children of the specified directory. Unreadable directory is treated as empty.
+     */
+    @NotNull
+    private static List<String> readNames(@NotNull File directory) {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory.toPath())) {
+            for (Path child : children) {
+                names.add(child.getFileName().toString());
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            return Collections.emptyList();
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+}
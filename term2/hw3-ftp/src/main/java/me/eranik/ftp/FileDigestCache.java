@@ -0,0 +1,230 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of file digests. Digest is identified by path, modification time and size of file, so it is computed
+ * again as soon as file is changed. Least recently used digests are evicted when the number of cached
+ * digests exceeds the capacity.
+ */
+class FileDigestCache {
+
+    /**
+     * Algorithm that is used to compute digests of files.
+     */
+    static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * Length of digest in bytes.
+     */
+    static final int DIGEST_LENGTH = 32;
+
+    private final int capacity;
+    private final Map<String, Entry> digests;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Creates cache of the specified capacity.
+     * @param capacity maximum number of cached digests
+     */
+    FileDigestCache(int capacity) {
+        this.capacity = capacity;
+        this.digests = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > FileDigestCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns digest of the current content of the specified file, computing it if needed.
+     * @param file specified file
+     * @return digest of the file
+     * @throws IOException if file cannot be read
+     */
+    @NotNull
+    byte[] getDigest(@NotNull File file) throws IOException {
+        String path = file.getPath();
+        long modified = getModificationTime(file);
+        long size = file.length();
+
+        Entry entry;
+        synchronized (this) {
+            entry = digests.get(path);
+        }
+        if (entry != null && entry.modified == modified && entry.size == size) {
+            hitCount.incrementAndGet();
+            return entry.digest;
+        }
+        missCount.incrementAndGet();
+
+        byte[] digest = computeDigest(file);
+        store(file, modified, size, digest);
+        return digest;
+    }
+
+    /**
+     * Starts computing digest of the specified file from the bytes that are fed by the caller while it reads
+     * the file, so that the file is read only once. The digest is cached when it is complete unless the file
+     * was changed meanwhile.
+     * @param file specified file
+     * @return digester of the file
+     * @throws IOException if attributes of file cannot be read
+     */
+    @NotNull
+    Digester startDigest(@NotNull File file) throws IOException {
+        missCount.incrementAndGet();
+        return new Digester(file, getModificationTime(file), file.length());
+    }
+
+    /**
+     * Caches digest of the file unless the file was changed since its attributes were read.
+     */
+    private void store(@NotNull File file, long modified, long size, @NotNull byte[] digest) throws IOException {
+        if (getModificationTime(file) == modified && file.length() == size) {
+            synchronized (this) {
+                digests.put(file.getPath(), new Entry(modified, size, digest));
+            }
+        }
+    }
+
+    /**
+     * Returns digest of the current content of the specified file only if it is already cached.
+     * @param file specified file
+     * @return digest of the file or {@code null} if it is not cached or is outdated
+     * @throws IOException if attributes of file cannot be read
+     */
+    @Nullable
+    byte[] getCachedDigest(@NotNull File file) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = digests.get(file.getPath());
+        }
+        if (entry == null || entry.modified != getModificationTime(file) || entry.size != file.length()) {
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.digest;
+    }
+
+    /**
+     * Returns number of digests that were found in cache.
+     * @return number of cache hits
+     */
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns number of digests that were computed because they were not found in cache or were outdated.
+     * @return number of cache misses
+     */
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    private static long getModificationTime(@NotNull File file) throws IOException {
+        return Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates object that computes digests with {@link #DIGEST_ALGORITHM}.
+     * @return message digest
+     */
+    @NotNull
+    static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is required to be supported by every JVM", e);
+        }
+    }
+
+    /**
+     * Reads the whole file and computes its digest.
+     * @param file specified file
+     * @return digest of the file
+     * @throws IOException if file cannot be read
+     */
+    @NotNull
+    static byte[] computeDigest(@NotNull File file) throws IOException {
+        MessageDigest digest = newMessageDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(16 * FileTransferProtocol.BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Digest of file that is computed step by step from the bytes read by the caller.
+     */
+    class Digester {
+
+        private final File file;
+        private final long modified;
+        private final long size;
+        private final MessageDigest digest = newMessageDigest();
+
+        private Digester(@NotNull File file, long modified, long size) {
+            this.file = file;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        /**
+         * Feeds the next bytes of file to the digest.
+         * @param bytes buffer which remaining bytes are the next bytes of file; they are left unconsumed
+         */
+        void update(@NotNull ByteBuffer bytes) {
+            int position = bytes.position();
+            digest.update(bytes);
+            bytes.position(position);
+        }
+
+        /**
+         * Completes the digest and caches it if the file was not changed while it was read.
+         * @return digest of all bytes fed to the digester
+         * @throws IOException if attributes of file cannot be read
+         */
+        @NotNull
+        byte[] finish() throws IOException {
+            byte[] result = digest.digest();
+            store(file, modified, size, result);
+            return result;
+        }
+    }
+
+    private static class Entry {
+        private final long modified;
+        private final long size;
+        private final byte[] digest;
+
+        private Entry(long modified, long size, @NotNull byte[] digest) {
+            this.modified = modified;
+            this.size = size;
+            this.digest = digest;
+        }
+    }
+}
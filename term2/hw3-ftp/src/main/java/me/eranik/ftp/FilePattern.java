@@ -0,0 +1,96 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expands patterns of batch get query to files. Pattern is either a path to a file or a glob in the syntax
+ * of {@link FileSystem#getPathMatcher}. Glob is matched against files under its base directory, which is the
+ * longest leading part of the pattern that contains no glob characters, and only the levels of the tree
+ * that pattern may match are visited.
+ */
+final class FilePattern {
+
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private FilePattern() {
+    }
+
+    /**
+     * Finds files that match the specified pattern. File that is specified by its path is named by its
+     * file name, while files that match a glob are named by their paths relative to the base directory,
+     * with {@code '/'} as separator. Files are added in order of their names; files with names that are
+     * added already are skipped.
+     * @param pattern path to a file or glob
+     * @param files map to add found files to by their names
+     * @throws IOException if directory tree cannot be walked
+     */
+    static void findFiles(@NotNull String pattern, @NotNull Map<String, File> files) throws IOException {
+        Path path;
+        try {
+            path = Paths.get(pattern);
+        } catch (InvalidPathException e) {
+            return;
+        }
+
+        int first = 0;
+        while (first < path.getNameCount() && !isGlob(path.getName(first).toString())) {
+            first++;
+        }
+        if (first == path.getNameCount()) {
+            File file = path.toFile();
+            if (file.isFile()) {
+                files.putIfAbsent(file.getName(), file);
+            }
+            return;
+        }
+
+        Path base = path;
+        for (int i = first; i < path.getNameCount() && base != null; i++) {
+            base = base.getParent();
+        }
+        Path root = base == null ? Paths.get("") : base;
+        int depth = pattern.contains("**") ? Integer.MAX_VALUE : path.getNameCount() - first;
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+        List<Path> matched = new ArrayList<>();
+        Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), depth, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile() && matcher.matches(file)) {
+                    matched.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        Collections.sort(matched);
+        for (Path file : matched) {
+            String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+            files.putIfAbsent(name, file.toFile());
+        }
+    }
+
+    private static boolean isGlob(@NotNull String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (GLOB_CHARACTERS.indexOf(name.charAt(i)) != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,959 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Provides file transfer protocol implementation for processing queries and forming responses to them.
+ * <p>
+ * Protocol supports two framings. In the one-shot framing client sends type of query followed by
+ * the path and closes its output; server answers and closes the connection. In the framed version client
+ * starts with {@link #FRAMED_PROTOCOL} and then sends any number of queries, each as
+ * {@code <type: Int> <length: Int> <arguments: Bytes>}; responses are sent back in the same order
+ * over the same connection until client closes it.
+ */
+class FileTransferProtocol {
+
+    static final int BUFFER_SIZE = 4096;
+
+    /**
+     * First word of connection that uses framed protocol. Does not intersect with query types,
+     * so one-shot clients are still recognized.
+     */
+    static final int FRAMED_PROTOCOL = 0x46545032;
+
+    /**
+     * Maximum allowed length of arguments of a single framed query.
+     */
+    static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    /**
+     * Maximum number of files of the batch response that are written at once. The rest of files is written
+     * when the writer asks for it, so response to one query cannot fill memory with its parts.
+     */
+    static final int MAX_BATCH_STEP = 8;
+
+    /**
+     * Maximum number of entries in one page of the streamed directory listing.
+     */
+    static final int MAX_PAGE_SIZE = 10000;
+
+    private static final Logger logger = Logger.getGlobal();
+
+    private final ListingCache listingCache;
+    private final Map<String, CompressionCodec> codecs;
+    private final FileDigestCache digestCache;
+    private final MappedFileCache mappedFiles;
+    private final MetricsRegistry metrics;
+
+    /**
+     * Creates protocol that serves queries of one server.
+     * @param listingCache cache of directory listings or {@code null} if listings should not be cached
+     * @param codecs codecs that may be used to compress responses by their names
+     * @param digestCache cache of digests of sent files
+     * @param mappedFiles cache of memory-mapped files or {@code null} if files should always be read from disk
+     * @param metrics registry that collects metrics of the server
+     */
+    FileTransferProtocol(@Nullable ListingCache listingCache, @NotNull Map<String, CompressionCodec> codecs,
+                         @NotNull FileDigestCache digestCache, @Nullable MappedFileCache mappedFiles,
+                         @NotNull MetricsRegistry metrics) {
+        this.listingCache = listingCache;
+        this.codecs = new HashMap<>(codecs);
+        this.digestCache = digestCache;
+        this.mappedFiles = mappedFiles;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns registry that collects metrics of the server.
+     * @return metrics registry
+     */
+    @NotNull
+    MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Reads path from the connection's query.
+     * @param input stream that allows to read client's query
+     * @return path to the file or directory from the client's query
+     * @throws IOException if any other error occurred while listening for connection
+     */
+    static String readPath(@NotNull DataInputStream input) throws IOException {
+        StringBuilder path = new StringBuilder();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+            path.append(new String(buffer, 0, read));
+        }
+        return path.toString();
+    }
+
+    /**
+     * Reads path, which is the last argument of every query, and records time spent on parsing the query.
+     * @param input stream that allows to read client's query
+     * @param start value of {@link System#nanoTime} when parsing of the query started
+     * @return path to the file or directory from the client's query
+     * @throws IOException if any other error occurred while listening for connection
+     */
+    @NotNull
+    private String readPath(@NotNull DataInputStream input, long start) throws IOException {
+        String path = readPath(input);
+        metrics.recordSince(MetricsRegistry.Stage.PARSE, start);
+        return path;
+    }
+
+    /**
+     * Prints tree of parent's directory to the string.
+     * @param parent specified parent's directory
+     * @param list list to store files and directories from the directory tree of specified directory
+     * @return number of files and directories in he directory tree of specified directory
+     */
+    static int getDirectoryTree(@NotNull File parent, @NotNull StringBuilder list) {
+        return getDirectoryTree(parent, list, directory -> {});
+    }
+
+    /**
+     * Prints tree of parent's directory to the string.
+     * @param parent specified parent's directory
+     * @param list list to store files and directories from the directory tree of specified directory
+     * @param visitor action that is performed on each directory of the tree before its children are listed
+     * @return number of files and directories in he directory tree of specified directory
+     */
+    static int getDirectoryTree(@NotNull File parent, @NotNull StringBuilder list, @NotNull Consumer<File> visitor) {
+        int size = 0;
+        if (parent.isDirectory()) {
+            visitor.accept(parent);
+            File[] children = parent.listFiles();
+            Arrays.sort(children, Comparator.comparing(File::getName));
+
+            for (File child : children) {
+                list.append(child.getPath());
+                list.append(' ');
+                list.append(child.isDirectory());
+                list.append('\n');
+                size += 1 + getDirectoryTree(child, list, visitor);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Sends list of files and directories from the directory tree of specified directory to the client.
+     * @param output destination of the response
+     * @param path path to the specified directory
+     * @throws IOException if any other error occurred while listening for connection
+     */
+    void processListQuery(@NotNull ResponseWriter output, @NotNull String path) throws IOException {
+        ListingCache.Listing listing = getListing(path);
+        output.getDataOutput().writeInt(listing.size);
+        if (output.isFramed()) {
+            output.getDataOutput().writeInt(listing.bytes.length);
+        }
+        output.getDataOutput().write(listing.bytes);
+    }
+
+    /**
+     * Sends list of files and directories from the directory tree of specified directory to the client
+     * compressed with the codec chosen from the offered ones. Response is written as
+     * {@code <size: Int> <codec: UTF>} followed by compressed blocks or, if no codec was chosen and
+     * codec name is empty, by {@code <length: Int> <bytes>}.
+     * @param output destination of the response
+     * @param path path to the specified directory
+     * @param offered comma-separated names of codecs known to the client in order of its preference
+     * @throws IOException if any other error occurred while listening for connection
+     */
+    void processCompressedListQuery(@NotNull ResponseWriter output, @NotNull String path, @NotNull String offered)
+            throws IOException {
+        ListingCache.Listing listing = getListing(path);
+        CompressionCodec codec = Compression.negotiate(codecs, offered);
+        DataOutputStream data = output.getDataOutput();
+        data.writeInt(listing.size);
+        data.writeUTF(codec == null ? "" : codec.getName());
+        if (codec == null) {
+            data.writeInt(listing.bytes.length);
+            data.write(listing.bytes);
+            return;
+        }
+        output.writeEncoded(new Compression.Encoder(new ByteArrayInputStream(listing.bytes), codec, path));
+    }
+
+    /**
+     * Returns listing of the directory tree of the specified directory, from cache if it is enabled.
+     */
+    @NotNull
+    private ListingCache.Listing getListing(@NotNull String path) {
+        long start = System.nanoTime();
+        try {
+            if (listingCache != null) {
+                return listingCache.get(path);
+            }
+            StringBuilder list = new StringBuilder();
+            int size = getDirectoryTree(new File(path), list);
+            return new ListingCache.Listing(size, list.toString().getBytes(), Collections.emptyList());
+        } finally {
+            metrics.recordSince(MetricsRegistry.Stage.LIST_WALK, start);
+        }
+    }
+
+    /**
+     * Appends the specified region of file to the response, from its memory mapping if the file is hot enough
+     * to be mapped.
+     * @param output destination of the response
+     * @param file file to be sent
+     * @param size size of the file that was announced to the client
+     * @param position position of the first byte to be sent
+     * @param count number of bytes to be sent
+     * @throws IOException if file cannot be read or sent
+     */
+    private void sendFile(@NotNull ResponseWriter output, @NotNull File file, long size, long position, long count)
+            throws IOException {
+        ByteBuffer region = mappedFiles == null ? null : mappedFiles.get(file, size);
+        if (region == null) {
+            output.writeFile(file, position, count);
+            return;
+        }
+        region.position((int) position);
+        region.limit((int) (position + count));
+        output.writeRegion(file, region);
+    }
+
+    /**
+     * Sends specified file to the client. Over the framed connection size of file is followed by
+     * {@code <digestFirst: Boolean>} and the digest of file, so that client may verify the received content.
+     * The digest precedes the content of file only if it is cached already; otherwise it is computed from
+     * the very bytes that are sent while they are read and follows them, so that the first byte is not delayed
+     * by reading the whole file and the digest matches the content even if file is changed meanwhile.
+     * @param output destination of the response
+     * @param path path to the specified directory
+     * @throws IOException if any other error occurred while listening for connection
+     */
+    void processGetQuery(@NotNull ResponseWriter output, @NotNull String path) throws IOException {
+        File file = new File(path);
+        if (!file.isFile()) {
+            output.getDataOutput().writeLong(-1);
+            return;
+        }
+        long size = file.length();
+        output.getDataOutput().writeLong(size);
+        if (!output.isFramed()) {
+            sendFile(output, file, size, 0, size);
+            return;
+        }
+
+        byte[] digest = digestCache.getCachedDigest(file);
+        output.getDataOutput().writeBoolean(digest != null);
+        if (digest == null) {
+            output.writeDigestedFile(file, size, digestCache.startDigest(file));
+            return;
+        }
+        output.getDataOutput().write(digest);
+        sendFile(output, file, size, 0, size);
+    }
+
+    /**
+     * Sends specified file to the client unless client has the same version of it. Response is written as
+     * {@code <size: Long> <digest: Bytes>} followed by the content of file only if the digest differs from
+     * the one known to the client; otherwise the response means that file was not modified.
+     * Size is {@code -1} and nothing follows it if file does not exist.
+     * @param output destination of the response
+     * @param path path to the specified file
+     * @param knownDigest digest of the version of file known to the client
+     * @throws IOException if any other error occurred while listening for connection
+     */
+    void processConditionalGetQuery(@NotNull ResponseWriter output, @NotNull String path, @NotNull byte[] knownDigest)
+            throws IOException {
+        File file = new File(path);
+        if (!file.isFile()) {
+            output.getDataOutput().writeLong(-1);
+            return;
+        }
+        long size = file.length();
+        byte[] digest = digestCache.getDigest(file);
+        output.getDataOutput().writeLong(size);
+        output.getDataOutput().write(digest);
+        if (!Arrays.equals(digest, knownDigest)) {
+            sendFile(output, file, size, 0, size);
+        }
+    }
+
+    /**
+     * Sends all files that match the specified patterns to the client in one response. Each file is written
+     * as {@code <true: Boolean> <name: UTF> <size: Long> <bytes>} and the response ends with
+     * {@code <false: Boolean>}, so client may save files as soon as they are received.
+     * Patterns that match nothing are skipped. Files are written by at most {@value #MAX_BATCH_STEP} at a time.
+     * @param output destination of the response
+     * @param patterns paths to files or globs separated by line breaks
+     * @throws IOException if any other error occurred while listening for connection
+     * @see FilePattern#findFiles
+     */
+    void processBatchGetQuery(@NotNull ResponseWriter output, @NotNull String patterns) throws IOException {
+        Map<String, File> files = new LinkedHashMap<>();
+        for (String pattern : patterns.split("\n")) {
+            if (!pattern.isEmpty()) {
+                FilePattern.findFiles(pattern, files);
+            }
+        }
+
+        output.writeLater(new BatchWriter(files.entrySet().iterator()));
+    }
+
+    /**
+     * Sends specified file to the client compressed with the codec chosen from the offered ones.
+     * Response is written as {@code <size: Long> <codec: UTF>} followed by compressed blocks or,
+     * if codec name is empty, by the file as is. Files that are compressed already are always sent as is.
+     * Size is {@code -1} and nothing follows it if file does not exist.
+     * @param output destination of the response
+     * @param path path to the specified file
+     * @param offered comma-separated names of codecs known to the client in order of its preference
+     * @throws IOException if any other error occurred while listening for connection
+     */
+    void processCompressedGetQuery(@NotNull ResponseWriter output, @NotNull String path, @NotNull String offered)
+            throws IOException {
+        File file = new File(path);
+        if (!file.isFile()) {
+            output.getDataOutput().writeLong(-1);
+            return;
+        }
+        CompressionCodec codec = Compression.isCompressed(file) ? null : Compression.negotiate(codecs, offered);
+        long size = file.length();
+        output.getDataOutput().writeLong(size);
+        output.getDataOutput().writeUTF(codec == null ? "" : codec.getName());
+        if (codec == null) {
+            sendFile(output, file, size, 0, size);
+            return;
+        }
+        output.writeEncoded(new Compression.Encoder(new FileInputStream(file), codec, path));
+    }
+
+    /**
+     * Sends the specified part of file to the client. Response contains size of the whole file
+     * and number of bytes that follow it, so that client may check whether its local copy can be continued.
+     * @param output destination of the response
+     * @param path path to the specified file
+     * @param offset position of the first byte to be sent
+     * @param length maximum number of bytes to be sent or negative number to send everything up to the end of file
+     * @throws IOException if any other error occurred while listening for connection
+     */
+    void processGetRangeQuery(@NotNull ResponseWriter output, @NotNull String path, long offset, long length)
+            throws IOException {
+        File file = new File(path);
+        if (!file.isFile()) {
+            output.getDataOutput().writeLong(-1);
+            return;
+        }
+        long size = file.length();
+        long position = Math.min(offset, size);
+        long count = length < 0 ? size - position : Math.min(length, size - position);
+        output.getDataOutput().writeLong(size);
+        output.getDataOutput().writeLong(count);
+        if (count > 0) {
+            sendFile(output, file, size, position, count);
+        }
+    }
+
+    /**
+     * Streams one page of the directory tree of the specified directory to the client. Entries are followed
+     * by {@code <false: Boolean> <cursor: UTF>}, where cursor allows to request the next page
+     * and is empty if there are no more entries.
+     * @param output destination of the response
+     * @param path path to the specified directory
+     * @param depth maximum depth of listed entries or non-positive number if depth is not limited
+     * @param limit maximum number of entries in the page; it is reduced to {@link #MAX_PAGE_SIZE} if it is
+     *              non-positive or greater than it
+     * @param cursor cursor returned with the previous page or empty string to start from the beginning
+     * @throws IOException if any other error occurred while listening for connection
+     */
+    void processWalkQuery(@NotNull ResponseWriter output, @NotNull String path, int depth, int limit,
+                                 @NotNull String cursor) throws IOException {
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            limit = MAX_PAGE_SIZE;
+        }
+        DataOutputStream data = output.getDataOutput();
+        long start = System.nanoTime();
+        String next = new DirectoryWalker(data, depth, limit).walk(new File(path), cursor);
+        metrics.recordSince(MetricsRegistry.Stage.LIST_WALK, start);
+        data.writeBoolean(false);
+        data.writeUTF(next);
+    }
+
+    /**
+     * Reads arguments of the query of the specified type and writes response to it.
+     * @param type type of query
+     * @param input stream that allows to read arguments of the query
+     * @param output destination of the response
+     * @throws FileTransferProtocolException if query does not satisfy file transfer protocol
+     * @throws IOException if any other error occurred while listening for connection
+     */
+    void processQuery(int type, @NotNull DataInputStream input, @NotNull ResponseWriter output)
+            throws IOException {
+        long start = System.nanoTime();
+        metrics.countQuery(type);
+        if (type == QueryType.listQuery.getValue()) {
+            processListQuery(output, readPath(input, start));
+            return;
+        }
+        if (type == QueryType.getQuery.getValue()) {
+            processGetQuery(output, readPath(input, start));
+            return;
+        }
+        if (type == QueryType.getRangeQuery.getValue()) {
+            long offset = input.readLong();
+            long length = input.readLong();
+            if (offset < 0) {
+                throw new FileTransferProtocolException();
+            }
+            processGetRangeQuery(output, readPath(input, start), offset, length);
+            return;
+        }
+        if (type == QueryType.walkQuery.getValue()) {
+            int depth = input.readInt();
+            int limit = input.readInt();
+            String cursor = input.readUTF();
+            processWalkQuery(output, readPath(input, start), depth, limit, cursor);
+            return;
+        }
+        if (type == QueryType.conditionalGetQuery.getValue()) {
+            byte[] knownDigest = new byte[FileDigestCache.DIGEST_LENGTH];
+            input.readFully(knownDigest);
+            processConditionalGetQuery(output, readPath(input, start), knownDigest);
+            return;
+        }
+        if (type == QueryType.batchGetQuery.getValue()) {
+            processBatchGetQuery(output, readPath(input, start));
+            return;
+        }
+        if (type == QueryType.compressedListQuery.getValue()) {
+            String offered = input.readUTF();
+            processCompressedListQuery(output, readPath(input, start), offered);
+            return;
+        }
+        if (type == QueryType.compressedGetQuery.getValue()) {
+            String offered = input.readUTF();
+            processCompressedGetQuery(output, readPath(input, start), offered);
+            return;
+        }
+
+        throw new FileTransferProtocolException();
+    }
+
+    /**
+     * Processes query from the specified connection and sends response to it.
+     * @param connection specified connection to process query from
+     * @param throttle throttle of the connection or {@code null} if the connection is not throttled
+     * @throws FileTransferProtocolException if query does not satisfy file transfer protocol
+     * @throws IOException if any other error occurred while listening for connection
+     */
+    void processConnection(@NotNull Socket connection, @Nullable Throttle throttle) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                     new CountingOutputStream(connection.getOutputStream(), metrics)))
+        ) {
+            int type = input.readInt();
+            if (type != FRAMED_PROTOCOL) {
+                processQuery(type, input, new StreamResponseWriter(output, connection.getChannel(), false, throttle,
+                        metrics));
+                output.flush();
+                return;
+            }
+
+            ResponseWriter writer = new StreamResponseWriter(output, connection.getChannel(), true, throttle, metrics);
+            while (hasNextFrame(input)) {
+                type = input.readInt();
+                processQuery(type, readFrameArguments(input), writer);
+                if (input.available() == 0) {
+                    output.flush();
+                }
+            }
+            output.flush();
+        }
+    }
+
+    /**
+     * Checks whether client sent one more query or closed the connection.
+     * @param input stream that allows to read client's queries
+     * @return {@code true} if there is one more query; {@code false} if the connection is closed
+     * @throws IOException if any other error occurred while listening for connection
+     */
+    private static boolean hasNextFrame(@NotNull DataInputStream input) throws IOException {
+        input.mark(1);
+        if (input.read() == -1) {
+            return false;
+        }
+        input.reset();
+        return true;
+    }
+
+    /**
+     * Reads length-prefixed arguments of the framed query.
+     * @param input stream that allows to read client's query
+     * @return stream that allows to read arguments of the query
+     * @throws FileTransferProtocolException if length of arguments is invalid
+     * @throws IOException if any other error occurred while listening for connection
+     */
+    static DataInputStream readFrameArguments(@NotNull DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new FileTransferProtocolException();
+        }
+        byte[] arguments = new byte[length];
+        input.readFully(arguments);
+        return new DataInputStream(new ByteArrayInputStream(arguments));
+    }
+
+    /**
+     * Logs the speed of finished file transfer and records its duration.
+     * @param metrics registry to record duration to
+     * @param file file that was sent
+     * @param bytes number of bytes sent
+     * @param nanos time spent on sending in nanoseconds
+     */
+    static void reportTransfer(@NotNull MetricsRegistry metrics, @NotNull File file, long bytes, long nanos) {
+        metrics.record(MetricsRegistry.Stage.FILE_STREAM, nanos);
+        double seconds = Math.max(nanos, 1) / 1e9;
+        logger.info(String.format("Sent %d bytes of %s in %.3f s (%.0f bytes/s)",
+                bytes, file.getPath(), seconds, bytes / seconds));
+    }
+
+    /**
+     * Destination of the server's response. Hides whether the response is written to a blocking stream
+     * or is queued for the selector-driven connection.
+     */
+    interface ResponseWriter {
+
+        /**
+         * Returns stream for headers and other small parts of the response.
+         * @return stream to write response data to
+         */
+        @NotNull DataOutputStream getDataOutput();
+
+        /**
+         * Appends the specified region of file to the response right after all data that was written before.
+         * @param file file to be sent
+         * @param position position of the first byte to be sent
+         * @param count number of bytes to be sent
+         * @throws IOException if file cannot be read or sent, including the case when it ends before
+         * {@code count} bytes are sent
+         */
+        void writeFile(@NotNull File file, long position, long count) throws IOException;
+
+        /**
+         * Appends remaining bytes of the buffer that holds part of file to the response right after all data
+         * that was written before. Buffer is consumed by the writer and should not be used after that.
+         * @param file file the buffer belongs to
+         * @param region buffer that contains part of the file, usually memory-mapped
+         * @throws IOException if data cannot be sent
+         */
+        void writeRegion(@NotNull File file, @NotNull ByteBuffer region) throws IOException;
+
+        /**
+         * Appends the first {@code count} bytes of file to the response right after all data that was written
+         * before and then the digest of these bytes. Bytes are fed to the digester as they are read to be sent,
+         * so file is read only once and the digest describes exactly the bytes that client receives.
+         * Writer may read the file later, so nothing else should be written to the response after that.
+         * @param file file to be sent
+         * @param count number of bytes to be sent
+         * @param digester digester of the file
+         * @throws IOException if file cannot be read or sent, including the case when it ends before
+         * {@code count} bytes are sent
+         */
+        void writeDigestedFile(@NotNull File file, long count, @NotNull FileDigestCache.Digester digester)
+                throws IOException;
+
+        /**
+         * Appends all blocks produced by the encoder to the response right after all data that was written before.
+         * Encoder is closed after the last block is written. Writer may produce blocks later, so nothing else
+         * should be written to the response after that.
+         * @param encoder encoder of compressed data
+         * @throws IOException if data cannot be compressed or sent
+         */
+        void writeEncoded(@NotNull Compression.Encoder encoder) throws IOException;
+
+        /**
+         * Appends the rest of the response produced by the continuation right after all data that was written
+         * before. Writer may run the continuation at once or after the data written before is sent.
+         * Nothing else should be written to the response after that.
+         * @param continuation continuation that writes the rest of the response
+         * @throws IOException if data cannot be read or sent
+         */
+        void writeLater(@NotNull Continuation continuation) throws IOException;
+
+        /**
+         * Checks whether the response is sent over the framed connection, so that its variable-length parts
+         * should be prefixed with their length.
+         * @return {@code true} if connection uses framed protocol; {@code false} otherwise
+         */
+        boolean isFramed();
+    }
+
+    /**
+     * Writes files of the batch response step by step.
+     */
+    private class BatchWriter implements Continuation {
+
+        private final Iterator<Map.Entry<String, File>> files;
+
+        private BatchWriter(@NotNull Iterator<Map.Entry<String, File>> files) {
+            this.files = files;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        @Nullable
+        public Continuation writeNext(@NotNull ResponseWriter output) throws IOException {
+            DataOutputStream data = output.getDataOutput();
+            for (int i = 0; i < MAX_BATCH_STEP && files.hasNext(); i++) {
+                Map.Entry<String, File> entry = files.next();
+                long size = entry.getValue().length();
+                data.writeBoolean(true);
+                data.writeUTF(entry.getKey());
+                data.writeLong(size);
+                sendFile(output, entry.getValue(), size, 0, size);
+            }
+            if (files.hasNext()) {
+                return this;
+            }
+            data.writeBoolean(false);
+            return null;
+        }
+    }
+
+    /**
+     * Part of the response that is written later, when the writer is ready for it.
+     */
+    interface Continuation {
+
+        /**
+         * Writes the next part of the response.
+         * @param output destination of the response
+         * @return continuation that writes the rest of the response or {@code null} if the response is complete
+         * @throws IOException if data cannot be read or sent
+         */
+        @Nullable Continuation writeNext(@NotNull ResponseWriter output) throws IOException;
+
+        /**
+         * Releases resources of the rest of the response if it will not be written because the connection
+         * is closed or the response failed.
+         */
+        default void close() {
+        }
+    }
+
+    /**
+     * Writes response directly to the connection's output stream. Files are sent with
+     * {@link FileChannel#transferTo} if the connection is backed by a channel, so the kernel
+     * may copy them to the socket without passing through user space.
+     * If the connection is throttled, file content is written by quanta as the throttle lets it.
+     */
+    static class StreamResponseWriter implements ResponseWriter {
+
+        private final DataOutputStream output;
+        private final WritableByteChannel channel;
+        private final boolean framed;
+        private final Throttle throttle;
+        private final MetricsRegistry metrics;
+
+        /**
+         * Creates writer to the specified stream that is not throttled and which metrics are not collected.
+         * @param output stream to write response to
+         * @param channel channel behind the same connection or {@code null} if the connection is not channel-backed
+         * @param framed whether the connection uses framed protocol
+         */
+        StreamResponseWriter(@NotNull DataOutputStream output, @Nullable WritableByteChannel channel,
+                             boolean framed) {
+            this(output, channel, framed, null, new MetricsRegistry());
+        }
+
+        /**
+         * Creates writer to the specified stream. Bytes written to the stream are not counted by the writer,
+         * only bytes sent directly to the channel are.
+         * @param output stream to write response to
+         * @param channel channel behind the same connection or {@code null} if the connection is not channel-backed
+         * @param framed whether the connection uses framed protocol
+         * @param throttle throttle of the connection or {@code null} if the connection is not throttled
+         * @param metrics registry that collects metrics of the server
+         */
+        StreamResponseWriter(@NotNull DataOutputStream output, @Nullable WritableByteChannel channel,
+                             boolean framed, @Nullable Throttle throttle, @NotNull MetricsRegistry metrics) {
+            this.output = output;
+            this.channel = channel;
+            this.framed = framed;
+            this.throttle = throttle;
+            this.metrics = metrics;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isFramed() {
+            return framed;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        @NotNull
+        public DataOutputStream getDataOutput() {
+            return output;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void writeFile(@NotNull File file, long position, long count) throws IOException {
+            long start = System.nanoTime();
+            output.flush();
+            Throttle.Shaping shaping = getShaping(count);
+            long sent = channel != null
+                    ? transferFile(file, position, count, shaping)
+                    : copyFile(file, position, count, shaping);
+            if (shaping == Throttle.Shaping.CHARGE) {
+                throttle.charge(sent);
+            }
+            reportTransfer(metrics, file, sent, System.nanoTime() - start);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void writeRegion(@NotNull File file, @NotNull ByteBuffer region) throws IOException {
+            long start = System.nanoTime();
+            long sent = region.remaining();
+            output.flush();
+            Throttle.Shaping shaping = getShaping(sent);
+            byte[] buffer = channel != null ? null : new byte[BUFFER_SIZE];
+            int end = region.limit();
+            try {
+                while (region.hasRemaining()) {
+                    region.limit(region.position() + (int) acquire(region.remaining(), shaping));
+                    if (channel != null) {
+                        while (region.hasRemaining()) {
+                            metrics.addBytesSent(channel.write(region));
+                        }
+                    } else {
+                        while (region.hasRemaining()) {
+                            int length = Math.min(buffer.length, region.remaining());
+                            region.get(buffer, 0, length);
+                            output.write(buffer, 0, length);
+                        }
+                    }
+                    region.limit(end);
+                }
+            } catch (InternalError e) {
+                throw new MappedFileTruncatedException(file, e);
+            }
+            if (shaping == Throttle.Shaping.CHARGE) {
+                throttle.charge(sent);
+            }
+            reportTransfer(metrics, file, sent, System.nanoTime() - start);
+        }
+
+        /**
+         * Reads file to user space even if the connection is backed by a channel, because bytes have to pass
+         * through the digester anyway, and writes the digest as soon as the last byte is sent.
+         */
+        @Override
+        public void writeDigestedFile(@NotNull File file, long count, @NotNull FileDigestCache.Digester digester)
+                throws IOException {
+            long start = System.nanoTime();
+            output.flush();
+            Throttle.Shaping shaping = getShaping(count);
+            ByteBuffer buffer = ByteBuffer.allocate(16 * BUFFER_SIZE);
+            long sent = 0;
+            try (FileChannel input = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                while (sent < count) {
+                    long granted = acquire(Math.min(buffer.capacity(), count - sent), shaping);
+                    buffer.clear();
+                    buffer.limit((int) granted);
+                    int read = input.read(buffer);
+                    release(granted - Math.max(read, 0), shaping);
+                    if (read == -1) {
+                        throw new FileTruncatedException(file, sent, count);
+                    }
+                    buffer.flip();
+                    digester.update(buffer);
+                    if (channel != null) {
+                        while (buffer.hasRemaining()) {
+                            metrics.addBytesSent(channel.write(buffer));
+                        }
+                    } else {
+                        output.write(buffer.array(), 0, read);
+                    }
+                    sent += read;
+                }
+            }
+            if (shaping == Throttle.Shaping.CHARGE) {
+                throttle.charge(sent);
+            }
+            reportTransfer(metrics, file, sent, System.nanoTime() - start);
+            output.write(digester.finish());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void writeEncoded(@NotNull Compression.Encoder encoder) throws IOException {
+            try {
+                Throttle.Shaping shaping = getShaping(Long.MAX_VALUE);
+                for (ByteBuffer block = encoder.nextBlock(); block != null; block = encoder.nextBlock()) {
+                    while (block.hasRemaining()) {
+                        int length = (int) acquire(block.remaining(), shaping);
+                        output.write(block.array(), block.position(), length);
+                        block.position(block.position() + length);
+                    }
+                }
+            } finally {
+                encoder.close();
+            }
+        }
+
+        /**
+         * Runs the continuation and all continuations that follow it at once, because stream blocks
+         * until data is sent anyway.
+         */
+        @Override
+        public void writeLater(@NotNull Continuation continuation) throws IOException {
+            Continuation next = continuation;
+            try {
+                while (next != null) {
+                    next = next.writeNext(this);
+                }
+            } catch (IOException | RuntimeException e) {
+                next.close();
+                throw e;
+            }
+        }
+
+        private long transferFile(@NotNull File file, long position, long count, @NotNull Throttle.Shaping shaping)
+                throws IOException {
+            long sent = 0;
+            try (FileChannel input = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                while (sent < count) {
+                    long granted = acquire(count - sent, shaping);
+                    long transferred = input.transferTo(position + sent, granted, channel);
+                    metrics.addBytesSent(transferred);
+                    release(granted - Math.max(transferred, 0), shaping);
+                    if (transferred <= 0 && position + sent >= input.size()) {
+                        throw new FileTruncatedException(file, sent, count);
+                    }
+                    sent += transferred;
+                }
+            }
+            return sent;
+        }
+
+        private long copyFile(@NotNull File file, long position, long count, @NotNull Throttle.Shaping shaping)
+                throws IOException {
+            long sent = 0;
+            try (FileInputStream input = new FileInputStream(file)) {
+                input.getChannel().position(position);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (sent < count) {
+                    long granted = acquire(Math.min(buffer.length, count - sent), shaping);
+                    int read = input.read(buffer, 0, (int) granted);
+                    release(granted - Math.max(read, 0), shaping);
+                    if (read == -1) {
+                        throw new FileTruncatedException(file, sent, count);
+                    }
+                    output.write(buffer, 0, read);
+                    sent += read;
+                }
+            }
+            return sent;
+        }
+
+        @NotNull
+        private Throttle.Shaping getShaping(long count) {
+            return throttle == null ? Throttle.Shaping.NONE : Throttle.shapingOf(count);
+        }
+
+        private long acquire(long wanted, @NotNull Throttle.Shaping shaping) throws IOException {
+            return shaping == Throttle.Shaping.WAIT ? throttle.acquire(wanted) : wanted;
+        }
+
+        private void release(long unused, @NotNull Throttle.Shaping shaping) {
+            if (shaping == Throttle.Shaping.WAIT && unused > 0) {
+                throttle.release(unused);
+            }
+        }
+    }
+
+    /**
+     * Stream that counts bytes written to the connection as sent.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private final MetricsRegistry metrics;
+
+        private CountingOutputStream(@NotNull OutputStream output, @NotNull MetricsRegistry metrics) {
+            super(output);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            metrics.addBytesSent(1);
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            metrics.addBytesSent(len);
+        }
+    }
+
+    /**
+     * Is thrown when file is truncated while it is sent, so that fewer bytes than were announced to the client
+     * can be read from it. The connection has to be closed, because client would take the next response
+     * for the rest of file.
+     */
+    static class FileTruncatedException extends IOException {
+        FileTruncatedException(@NotNull File file, long sent, long count) {
+            super("File " + file.getPath() + " was truncated while it was sent: " + sent + " of " + count
+                    + " bytes were read");
+        }
+    }
+
+    /**
+     * Is thrown when memory-mapped file is truncated while it is sent, so that part of its mapping
+     * cannot be read anymore.
+     */
+    static class MappedFileTruncatedException extends IOException {
+        MappedFileTruncatedException(@NotNull File file, @NotNull Throwable cause) {
+            super("File " + file.getPath() + " was truncated while it was sent", cause);
+        }
+    }
+
+    /**
+     * Is thrown when client's query does not satisfy the file transfer protocol.
+     */
+    static class FileTransferProtocolException extends IOException {
+        FileTransferProtocolException() {
+            super("The query does not match the protocol");
+        }
+    }
+
+}
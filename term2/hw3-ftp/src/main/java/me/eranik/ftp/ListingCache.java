@@ -0,0 +1,271 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Cache of serialized directory listings with bounded memory and least-recently-used eviction.
+ * Every directory of the cached tree is watched, so the listing is dropped as soon as any entry
+ * is created or deleted anywhere in the tree.
+ */
+class ListingCache implements Closeable {
+
+    /**
+     * Approximate memory taken by a cached listing in addition to its bytes.
+     */
+    static final int ENTRY_OVERHEAD = 128;
+
+    private final Logger logger = Logger.getGlobal();
+    private final long capacity;
+    private final WatchService watchService;
+
+    private final LinkedHashMap<String, Listing> listings = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<WatchKey, Set<String>> dependents = new HashMap<>();
+    private long size = 0;
+    private long invalidations = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * Creates cache and starts thread that watches cached directories.
+     * @param capacity maximum memory taken by cached listings in bytes
+     * @throws IOException if watch service cannot be created
+     */
+    ListingCache(long capacity) throws IOException {
+        this.capacity = capacity;
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        Thread watcher = new Thread(this::watch);
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Returns listing of the directory tree of the specified directory, building and caching it if needed.
+     * @param path path to the specified directory exactly as it was received from client
+     * @return listing of the directory tree
+     */
+    @NotNull
+    Listing get(@NotNull String path) {
+        Listing listing;
+        long version;
+        synchronized (this) {
+            listing = listings.get(path);
+            version = invalidations;
+        }
+        if (listing != null) {
+            hitCount.incrementAndGet();
+            return listing;
+        }
+        missCount.incrementAndGet();
+
+        List<WatchKey> keys = new ArrayList<>();
+        StringBuilder list = new StringBuilder();
+        int count;
+        try {
+            count = FileTransferProtocol.getDirectoryTree(new File(path), list, directory -> keys.add(watch(directory)));
+        } catch (UncheckedIOException e) {
+            logger.warning("Listing of " + path + " cannot be cached\n" + e.getMessage());
+            release(keys);
+            list.setLength(0);
+            count = FileTransferProtocol.getDirectoryTree(new File(path), list);
+            return new Listing(count, list.toString().getBytes(), Collections.emptyList());
+        }
+
+        listing = new Listing(count, list.toString().getBytes(), keys);
+        if (!put(path, listing, version)) {
+            release(keys);
+        }
+        return listing;
+    }
+
+    /**
+     * Returns number of listings that were found in cache.
+     * @return number of cache hits
+     */
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns number of listings that were built because they were not found in cache.
+     * @return number of cache misses
+     */
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns number of listings that were dropped to free memory.
+     * @return number of evictions
+     */
+    long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Returns number of listings that were dropped because their directory tree was changed.
+     * @return number of invalidations
+     */
+    long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * Stops watching directories.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private WatchKey watch(@NotNull File directory) {
+        try {
+            return directory.toPath().register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Puts listing to cache unless anything was invalidated since the listing was started to build
+     * or some of its directories are not watched anymore. Listing of a path that is not a directory
+     * is not cached either, because nothing is watched for it and the directory may be created later.
+     * @return {@code true} if the listing was cached; {@code false} otherwise
+     */
+    private synchronized boolean put(@NotNull String path, @NotNull Listing listing, long version) {
+        if (listing.keys.isEmpty() || version != invalidations || listings.containsKey(path)
+                || listing.weight(path) > capacity) {
+            return false;
+        }
+        for (WatchKey key : listing.keys) {
+            if (!key.isValid()) {
+                return false;
+            }
+        }
+
+        listings.put(path, listing);
+        size += listing.weight(path);
+        for (WatchKey key : listing.keys) {
+            dependents.computeIfAbsent(key, k -> new HashSet<>()).add(path);
+        }
+
+        Iterator<Map.Entry<String, Listing>> eldest = listings.entrySet().iterator();
+        while (size > capacity) {
+            Map.Entry<String, Listing> entry = eldest.next();
+            eldest.remove();
+            forget(entry.getKey(), entry.getValue());
+            evictionCount.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Cancels watch keys of the listing that was not cached unless they are shared with cached listings.
+     * The same key is returned for every registration of the directory, so a key without dependents is not
+     * used by any cached listing.
+     */
+    private synchronized void release(@NotNull List<WatchKey> keys) {
+        for (WatchKey key : keys) {
+            if (!dependents.containsKey(key)) {
+                key.cancel();
+            }
+        }
+    }
+
+    private synchronized void remove(@NotNull String path) {
+        Listing listing = listings.remove(path);
+        if (listing != null) {
+            forget(path, listing);
+            invalidationCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Releases memory and watch keys of the listing that is already removed from the map.
+     */
+    private void forget(@NotNull String path, @NotNull Listing listing) {
+        size -= listing.weight(path);
+        for (WatchKey key : listing.keys) {
+            Set<String> paths = dependents.get(key);
+            if (paths != null) {
+                paths.remove(path);
+                if (paths.isEmpty()) {
+                    dependents.remove(key);
+                    key.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives filesystem events and drops listings of changed directories.
+     */
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            boolean overflow = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    overflow = true;
+                }
+            }
+
+            synchronized (this) {
+                invalidations++;
+                Collection<String> paths = overflow ? listings.keySet() : dependents.get(key);
+                if (paths != null) {
+                    for (String path : new ArrayList<>(paths)) {
+                        remove(path);
+                    }
+                }
+            }
+            key.reset();
+        }
+    }
+
+    /**
+     * Serialized listing of the directory tree.
+     */
+    static class Listing {
+        final int size;
+        final byte[] bytes;
+        final List<WatchKey> keys;
+
+        Listing(int size, @NotNull byte[] bytes, @NotNull List<WatchKey> keys) {
+            this.size = size;
+            this.bytes = bytes;
+            this.keys = keys;
+        }
+
+        private long weight(@NotNull String path) {
+            return bytes.length + 2L * path.length() + ENTRY_OVERHEAD;
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of memory-mapped files. File is mapped once it was requested {@link #MIN_HITS} times, so that files
+ * that are sent once are still streamed from disk. Total size of mapped files is bounded by the capacity;
+ * to map a new file, mapped files that were requested fewer times than it are unmapped, so the hottest files
+ * stay mapped. Hit counts are halved from time to time, so files that are not requested anymore lose their place.
+ * <p>
+ * Mapping is identified by path, modification time and size of file. Java does not allow to unmap buffers
+ * explicitly, so memory of evicted mappings is released when they are garbage collected.
+ * <p>
+ * Requests of different files do not wait for each other: files are looked up in a concurrent map and each file
+ * is mapped under its own entry's lock, so only requests of the same file wait until it is mapped. The cache's
+ * lock guards only the bookkeeping of mapped bytes, which is needed to evict mappings and to decay hit counts.
+ */
+class MappedFileCache {
+
+    /**
+     * Number of requests of file after which it is mapped.
+     */
+    static final int MIN_HITS = 2;
+
+    /**
+     * Maximum number of files which hit counts are tracked.
+     */
+    private static final int MAX_TRACKED_FILES = 10000;
+
+    private final long capacity;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final List<Entry> mapped = new ArrayList<>();
+    private long mappedBytes = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Creates cache of the specified capacity.
+     * @param capacity maximum total size of mapped files in bytes
+     */
+    MappedFileCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Counts request of the specified file and returns its mapped content if file is mapped or has become hot enough.
+     * @param file specified file
+     * @param size size of the file that is announced to the client
+     * @return read-only buffer that contains the whole file or {@code null} if file should be read from disk
+     * @throws IOException if file cannot be mapped
+     */
+    @Nullable
+    ByteBuffer get(@NotNull File file, long size) throws IOException {
+        String path = file.getPath();
+        long modified = Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+
+        Entry entry = entries.get(path);
+        if (entry == null || entry.modified != modified || entry.size != size) {
+            entry = track(path, modified, size);
+        }
+        entry.hits.incrementAndGet();
+
+        ByteBuffer region = entry.region;
+        if (region == null) {
+            region = map(entry, file);
+        }
+        if (region == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return region.duplicate();
+    }
+
+    /**
+     * Returns number of requests that were served from mapped files.
+     * @return number of cache hits
+     */
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns number of requests that had to read file from disk.
+     * @return number of cache misses
+     */
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns total size of currently mapped files.
+     * @return number of mapped bytes
+     */
+    synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    /**
+     * Starts tracking the current version of file. Mapping of its outdated version is released.
+     * @return entry of the current version of file
+     */
+    @NotNull
+    private Entry track(@NotNull String path, long modified, long size) {
+        if (entries.size() >= MAX_TRACKED_FILES && !entries.containsKey(path)) {
+            synchronized (this) {
+                decay();
+            }
+        }
+        Entry[] outdated = new Entry[1];
+        Entry entry = entries.compute(path, (key, current) -> {
+            if (current != null && current.modified == modified && current.size == size) {
+                return current;
+            }
+            outdated[0] = current;
+            return new Entry(modified, size);
+        });
+        if (outdated[0] != null) {
+            synchronized (this) {
+                unmap(outdated[0]);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Maps file if it is hot enough and there is room for it. Concurrent requests of the same file wait until
+     * one of them maps it; room is reserved under the cache's lock, but the file is mapped outside of it.
+     * @return mapped content of file or {@code null} if file should be read from disk
+     */
+    @Nullable
+    private ByteBuffer map(@NotNull Entry entry, @NotNull File file) throws IOException {
+        if (entry.hits.get() < MIN_HITS || entry.size == 0 || entry.size > capacity
+                || entry.size > Integer.MAX_VALUE) {
+            return null;
+        }
+        synchronized (entry) {
+            if (entry.region != null) {
+                return entry.region;
+            }
+            if (!reserve(entry)) {
+                return null;
+            }
+            MappedByteBuffer region;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                region = channel.map(FileChannel.MapMode.READ_ONLY, 0, entry.size);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    unmap(entry);
+                }
+                throw e;
+            }
+            synchronized (this) {
+                if (entry.reserved) {
+                    entry.region = region;
+                }
+            }
+            return region;
+        }
+    }
+
+    /**
+     * Reserves room for the entry, unmapping files that were requested fewer times than it.
+     * @return {@code true} if room is reserved; {@code false} if all mapped files are hotter than the entry
+     */
+    private synchronized boolean reserve(@NotNull Entry entry) {
+        while (mappedBytes + entry.size > capacity) {
+            Entry coldest = null;
+            for (Entry candidate : mapped) {
+                if (coldest == null || candidate.hits.get() < coldest.hits.get()) {
+                    coldest = candidate;
+                }
+            }
+            if (coldest == null || coldest.hits.get() >= entry.hits.get()) {
+                return false;
+            }
+            unmap(coldest);
+        }
+        entry.reserved = true;
+        mapped.add(entry);
+        mappedBytes += entry.size;
+        return true;
+    }
+
+    /**
+     * Releases room of the entry. Must be called under the cache's lock.
+     */
+    private void unmap(@NotNull Entry entry) {
+        if (entry.reserved) {
+            entry.reserved = false;
+            entry.region = null;
+            mapped.remove(entry);
+            mappedBytes -= entry.size;
+        }
+    }
+
+    /**
+     * Halves hit counts of all files and forgets files that are not mapped and were not requested since
+     * the previous decay. If that is not enough, forgets all files that are not mapped.
+     * Must be called under the cache's lock.
+     */
+    private void decay() {
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+            if (entry.hits.updateAndGet(hits -> hits / 2) == 0 && !entry.reserved) {
+                iterator.remove();
+            }
+        }
+        if (entries.size() >= MAX_TRACKED_FILES) {
+            entries.values().removeIf(entry -> !entry.reserved);
+        }
+    }
+
+    /**
+     * Tracked version of file. Its room in the cache is guarded by the cache's lock.
+     */
+    private static class Entry {
+        private final long modified;
+        private final long size;
+        private final AtomicLong hits = new AtomicLong();
+        private boolean reserved = false;
+        private volatile MappedByteBuffer region;
+
+        private Entry(long modified, long size) {
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one server run. All methods may be called from any thread
+ * and recording does not block.
+ */
+class MetricsRegistry implements ServerMetricsMXBean {
+
+    /**
+     * Stages of serving queries which durations are measured.
+     */
+    enum Stage {
+        /**
+         * From acceptance of connection until a worker or an event loop starts serving it.
+         */
+        ACCEPT("accept"),
+        /**
+         * Decoding of arguments of one query.
+         */
+        PARSE("parse"),
+        /**
+         * Listing of directory tree for list and walk queries, including cache lookup.
+         */
+        LIST_WALK("list walk"),
+        /**
+         * Sending of file content from the first byte to the last one.
+         */
+        FILE_STREAM("file stream");
+
+        private final String name;
+
+        Stage(@NotNull String name) {
+            this.name = name;
+        }
+    }
+
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final LongAdder acceptedConnections = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder unknownQueries = new LongAdder();
+    private final Map<QueryType, LongAdder> queries = new EnumMap<>(QueryType.class);
+    private final Map<Stage, LatencyHistogram> latencies = new EnumMap<>(Stage.class);
+
+    MetricsRegistry() {
+        for (QueryType type : QueryType.values()) {
+            queries.put(type, new LongAdder());
+        }
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage, new LatencyHistogram());
+        }
+    }
+
+    void connectionAccepted() {
+        acceptedConnections.increment();
+    }
+
+    void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    void connectionOpened() {
+        activeConnections.incrementAndGet();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    void addBytesSent(long count) {
+        bytesSent.add(count);
+    }
+
+    /**
+     * Counts query of the specified type.
+     * @param type value of the query type as it is sent by client
+     */
+    void countQuery(int type) {
+        for (QueryType queryType : QueryType.values()) {
+            if (queryType.getValue() == type) {
+                queries.get(queryType).increment();
+                return;
+            }
+        }
+        unknownQueries.increment();
+    }
+
+    /**
+     * Records duration of the stage that started at the specified time and finished now.
+     * @param stage measured stage
+     * @param start value of {@link System#nanoTime} when the stage started
+     */
+    void recordSince(@NotNull Stage stage, long start) {
+        record(stage, System.nanoTime() - start);
+    }
+
+    void record(@NotNull Stage stage, long nanos) {
+        latencies.get(stage).record(nanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getActiveConnectionCount() {
+        return activeConnections.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getAcceptedConnectionCount() {
+        return acceptedConnections.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRejectedConnectionCount() {
+        return rejectedConnections.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @NotNull
+    public Map<String, Long> getQueryCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<QueryType, LongAdder> entry : queries.entrySet()) {
+            counts.put(entry.getKey().name(), entry.getValue().sum());
+        }
+        counts.put("unknown", unknownQueries.sum());
+        return counts;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @NotNull
+    public Map<String, Latency> getLatencies() {
+        Map<String, Latency> summaries = new LinkedHashMap<>();
+        for (Map.Entry<Stage, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            summaries.put(entry.getKey().name, new Latency(histogram.getCount(), histogram.getMean() / 1e6,
+                    histogram.getPercentile(0.5) / 1e6, histogram.getPercentile(0.99) / 1e6,
+                    histogram.getMax() / 1e6));
+        }
+        return summaries;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @NotNull
+    public String dump() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("connections: %d active, %d accepted, %d rejected%n",
+                getActiveConnectionCount(), getAcceptedConnectionCount(), getRejectedConnectionCount()));
+        text.append(String.format("bytes sent: %d%n", getBytesSent()));
+        text.append("queries:");
+        for (Map.Entry<String, Long> entry : getQueryCounts().entrySet()) {
+            text.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        text.append(String.format("%n%-12s %10s %10s %10s %10s %10s%n",
+                "latency, ms", "count", "mean", "p50", "p99", "max"));
+        for (Map.Entry<String, Latency> entry : getLatencies().entrySet()) {
+            Latency latency = entry.getValue();
+            text.append(String.format("%-12s %10d %10.3f %10.3f %10.3f %10.3f%n", entry.getKey(), latency.getCount(),
+                    latency.getMeanMillis(), latency.getMedianMillis(), latency.getP99Millis(),
+                    latency.getMaxMillis()));
+        }
+        return text.toString();
+    }
+}
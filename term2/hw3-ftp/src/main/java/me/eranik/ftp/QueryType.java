@@ -4,7 +4,8 @@ package me.eranik.ftp;
  * Describes available query types for client-server interaction.
  */
 public enum QueryType {
-    listQuery(1), getQuery(2);
+    listQuery(1), getQuery(2), getRangeQuery(3), walkQuery(4),
+    compressedListQuery(5), compressedGetQuery(6), conditionalGetQuery(7), batchGetQuery(8);
 
     private final int id;
 
@@ -22,6 +23,16 @@ public enum QueryType {
                 return listQuery;
             case "get":
                 return getQuery;
+            case "resume":
+                return getRangeQuery;
+            case "walk":
+                return walkQuery;
+            case "zlist":
+                return compressedListQuery;
+            case "zget":
+                return compressedGetQuery;
+            case "mget":
+                return batchGetQuery;
             default:
                 return null;
         }
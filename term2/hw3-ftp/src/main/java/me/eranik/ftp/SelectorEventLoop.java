@@ -0,0 +1,905 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+import static me.eranik.ftp.FileTransferProtocol.BUFFER_SIZE;
+
+/**
+ * Event loop that serves many non-blocking connections from a single thread with the help of selector.
+ * Queries are read without blocking, responses are queued and written whenever the socket is ready for writing.
+ * Queries are processed by worker threads, because listing directories and reading files may block; each
+ * connection has at most one query in processing, so responses are sent in the order of queries.
+ * Throttled connections that run out of tokens stop waiting for writability until the tokens are refilled.
+ */
+class SelectorEventLoop implements Runnable {
+
+    /**
+     * Maximum number of bytes written to one connection before switching to other ready connections.
+     */
+    private static final int WRITE_QUANTUM = 16 * BUFFER_SIZE;
+
+    /**
+     * Maximum number of response chunks queued for one connection. When it is reached, pipelined queries
+     * are not processed until client reads responses to the previous ones. Response that is written step
+     * by step continues when half of the queue is sent.
+     */
+    private static final int MAX_QUEUED_CHUNKS = 64;
+
+    /**
+     * Number of compressed or digested blocks that a worker produces at once. Blocks are queued as ready
+     * buffers, so the event loop never reads, compresses or digests data itself.
+     */
+    private static final int BLOCKS_PER_STEP = 4;
+
+    /**
+     * Size of block of file that a worker reads and digests at once.
+     */
+    private static final int DIGESTED_BLOCK_SIZE = 16 * BUFFER_SIZE;
+
+    private final Logger logger = Logger.getGlobal();
+    private final FileTransferProtocol protocol;
+    private final MetricsRegistry metrics;
+    private final Executor workers;
+    private final Selector selector;
+    private final Queue<Connection> registrations = new ConcurrentLinkedQueue<>();
+    private final Queue<Response> completedResponses = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Connection> pausedConnections =
+            new PriorityQueue<>(Comparator.comparingLong((Connection connection) -> connection.resumeAt));
+
+    /**
+     * Creates event loop with its own selector.
+     * @param protocol protocol that processes queries
+     * @param workers executor that processes queries, may be shared by several event loops
+     * @throws IOException if selector cannot be opened
+     */
+    SelectorEventLoop(@NotNull FileTransferProtocol protocol, @NotNull Executor workers) throws IOException {
+        this.protocol = protocol;
+        this.metrics = protocol.getMetrics();
+        this.workers = workers;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Passes accepted connection to this event loop. May be called from any thread.
+     * @param channel accepted connection
+     * @param throttle throttle of the connection or {@code null} if the connection is not throttled
+     * @param onClose action that is performed once when the connection is closed
+     */
+    void register(@NotNull SocketChannel channel, @Nullable Throttle throttle, @NotNull Runnable onClose) {
+        registrations.add(new Connection(channel, throttle, onClose));
+        selector.wakeup();
+    }
+
+    /**
+     * Serves registered connections until the thread is interrupted.
+     */
+    @Override
+    public void run() {
+        try {
+            while (!Thread.interrupted()) {
+                selector.select(getSelectTimeout());
+                registerPendingConnections();
+                completeResponses();
+                resumePausedConnections();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (ClosedByInterruptException e) {
+                        connection.close();
+                        return;
+                    } catch (IOException e) {
+                        logger.warning("Error occurred when listening for connection\n" + e.getMessage());
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("Error occurred in event loop\n" + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            for (Connection connection = registrations.poll(); connection != null; connection = registrations.poll()) {
+                connection.close();
+            }
+            for (Response response = completedResponses.poll(); response != null;
+                 response = completedResponses.poll()) {
+                response.close();
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    private void registerPendingConnections() {
+        for (Connection connection = registrations.poll(); connection != null; connection = registrations.poll()) {
+            try {
+                connection.channel.configureBlocking(false);
+                connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                metrics.recordSince(MetricsRegistry.Stage.ACCEPT, connection.acceptedAt);
+            } catch (IOException e) {
+                logger.warning("Error occurred when registering connection\n" + e.getMessage());
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Queues responses that were written by workers for sending.
+     */
+    private void completeResponses() {
+        for (Response response = completedResponses.poll(); response != null; response = completedResponses.poll()) {
+            Connection connection = response.connection;
+            try {
+                connection.complete(response);
+            } catch (IOException e) {
+                logger.warning("Error occurred when listening for connection\n" + e.getMessage());
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Returns time until the first paused connection may be resumed.
+     * @return timeout in milliseconds or zero if there are no paused connections
+     */
+    private long getSelectTimeout() {
+        Connection first = pausedConnections.peek();
+        if (first == null) {
+            return 0;
+        }
+        return Math.max(1, (first.resumeAt - System.nanoTime() + 999_999) / 1_000_000);
+    }
+
+    private void resumePausedConnections() {
+        long now = System.nanoTime();
+        while (!pausedConnections.isEmpty() && pausedConnections.peek().resumeAt - now <= 0) {
+            Connection connection = pausedConnections.poll();
+            connection.paused = false;
+            if (connection.closed) {
+                continue;
+            }
+            try {
+                connection.updateInterest();
+            } catch (IOException e) {
+                logger.warning("Error occurred when listening for connection\n" + e.getMessage());
+                connection.close();
+            }
+        }
+    }
+
+    private static void closeQuietly(@NotNull Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * State of a single client connection: bytes of queries read so far and parts of responses
+     * that are not written yet.
+     */
+    private class Connection {
+
+        private final SocketChannel channel;
+        private final Throttle throttle;
+        private final Runnable onClose;
+        private final long acceptedAt = System.nanoTime();
+        private SelectionKey key;
+        private boolean closed = false;
+        private boolean paused = false;
+        private long resumeAt;
+
+        private ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+        private Framing framing = Framing.UNKNOWN;
+        private boolean inputClosed = false;
+        private boolean processing = false;
+        private FileTransferProtocol.Continuation continuation;
+
+        private Connection(@NotNull SocketChannel channel, @Nullable Throttle throttle, @NotNull Runnable onClose) {
+            this.channel = channel;
+            this.throttle = throttle;
+            this.onClose = onClose;
+            metrics.connectionOpened();
+        }
+
+        /**
+         * Reads available part of queries and processes all queries that are read completely.
+         * @throws IOException if any error occurred while reading or processing queries
+         */
+        private void read() throws IOException {
+            if (channel.read(input) == -1) {
+                inputClosed = true;
+            }
+            processQueries();
+            updateInterest();
+        }
+
+        /**
+         * Writes as much of the queued responses as the socket accepts within one quantum.
+         * File content of throttled connection is written only as far as the throttle lets it;
+         * if it lets nothing, connection is paused until tokens are refilled.
+         * Closes connection when all responses are written and client will send nothing more.
+         * @throws IOException if any error occurred while writing response
+         */
+        private void write() throws IOException {
+            int budget = WRITE_QUANTUM;
+            while (!chunks.isEmpty() && budget > 0) {
+                Chunk chunk = chunks.peek();
+                Throttle.Shaping shaping = throttle == null ? Throttle.Shaping.NONE : chunk.getShaping();
+                int limit = budget;
+                if (shaping == Throttle.Shaping.WAIT) {
+                    limit = (int) throttle.tryAcquire(budget);
+                    if (limit == 0) {
+                        paused = true;
+                        resumeAt = System.nanoTime() + throttle.getDelayNanos();
+                        pausedConnections.add(this);
+                        break;
+                    }
+                }
+
+                int written = chunk.writeTo(channel, limit);
+                metrics.addBytesSent(written);
+                budget -= written;
+                if (shaping == Throttle.Shaping.WAIT) {
+                    throttle.release(limit - written);
+                } else if (shaping == Throttle.Shaping.CHARGE) {
+                    throttle.charge(written);
+                }
+                if (!chunk.isDone()) {
+                    break;
+                }
+                chunks.poll().close();
+            }
+            if (continuation != null && chunks.size() <= MAX_QUEUED_CHUNKS / 2) {
+                continueResponse();
+            } else if (chunks.isEmpty()) {
+                processQueries();
+            }
+            updateInterest();
+        }
+
+        private void processQueries() throws IOException {
+            input.flip();
+            try {
+                if (framing == Framing.UNKNOWN && input.remaining() >= 4) {
+                    if (input.getInt(input.position()) == FileTransferProtocol.FRAMED_PROTOCOL) {
+                        input.getInt();
+                        framing = Framing.FRAMED;
+                    } else {
+                        framing = Framing.ONE_SHOT;
+                    }
+                }
+                if (framing == Framing.FRAMED) {
+                    processFrames();
+                } else if (framing != Framing.DONE && inputClosed) {
+                    processOneShotQuery();
+                }
+            } finally {
+                input.compact();
+            }
+        }
+
+        private void processFrames() throws IOException {
+            while (!processing && chunks.size() < MAX_QUEUED_CHUNKS && input.remaining() >= 8) {
+                int length = input.getInt(input.position() + 4);
+                if (length < 0 || length > FileTransferProtocol.MAX_FRAME_LENGTH) {
+                    throw new FileTransferProtocol.FileTransferProtocolException();
+                }
+                if (input.remaining() < 8 + length) {
+                    reserve(8 + length);
+                    return;
+                }
+                int type = input.getInt();
+                input.getInt();
+                byte[] arguments = new byte[length];
+                input.get(arguments);
+                process(type, new DataInputStream(new ByteArrayInputStream(arguments)));
+            }
+        }
+
+        private void processOneShotQuery() throws IOException {
+            if (framing == Framing.UNKNOWN) {
+                throw new EOFException("Connection was closed before query was sent");
+            }
+            byte[] query = new byte[input.remaining()];
+            input.get(query);
+            framing = Framing.DONE;
+            DataInputStream arguments = new DataInputStream(new ByteArrayInputStream(query));
+            process(arguments.readInt(), arguments);
+        }
+
+        /**
+         * Passes query to a worker. Response is queued when the worker completes it.
+         * @throws IOException if the query cannot be processed because workers are shut down
+         */
+        private void process(int type, @NotNull DataInputStream arguments) throws IOException {
+            execute(response -> {
+                protocol.processQuery(type, arguments, response);
+                return null;
+            });
+        }
+
+        /**
+         * Passes the next part of the response to a worker.
+         * @throws IOException if the response cannot be continued because workers are shut down
+         */
+        private void continueResponse() throws IOException {
+            FileTransferProtocol.Continuation next = continuation;
+            continuation = null;
+            execute(next);
+        }
+
+        private void execute(@NotNull FileTransferProtocol.Continuation task) throws IOException {
+            Response response = new Response(this, framing == Framing.FRAMED);
+            processing = true;
+            try {
+                workers.execute(() -> {
+                    try {
+                        FileTransferProtocol.Continuation next = task.writeNext(response);
+                        if (next != null) {
+                            response.writeLater(next);
+                        }
+                        response.flushData();
+                    } catch (Exception e) {
+                        response.failure = e;
+                        task.close();
+                    }
+                    completedResponses.add(response);
+                    selector.wakeup();
+                });
+            } catch (RejectedExecutionException e) {
+                task.close();
+                throw new IOException("Query cannot be processed because server is stopping", e);
+            }
+        }
+
+        /**
+         * Queues chunks of the response written by worker and continues with the rest of the response
+         * or with the next query.
+         * @param response completed response
+         * @throws IOException if the query failed or next query cannot be processed
+         */
+        private void complete(@NotNull Response response) throws IOException {
+            processing = false;
+            if (closed) {
+                response.close();
+                return;
+            }
+            if (response.failure != null) {
+                response.close();
+                if (response.failure instanceof IOException) {
+                    throw (IOException) response.failure;
+                }
+                throw new IOException(response.failure);
+            }
+            chunks.addAll(response.chunks);
+            continuation = response.continuation;
+            if (continuation != null) {
+                processing = true;
+                if (chunks.size() <= MAX_QUEUED_CHUNKS / 2) {
+                    continueResponse();
+                }
+            } else {
+                processQueries();
+            }
+            updateInterest();
+        }
+
+        /**
+         * Makes sure that input buffer can hold query of the specified size. Must be called while
+         * the buffer is flipped for reading.
+         */
+        private void reserve(int size) {
+            if (input.capacity() < size) {
+                ByteBuffer larger = ByteBuffer.allocate(size);
+                larger.put(input);
+                larger.flip();
+                input = larger;
+            }
+        }
+
+        private void updateInterest() throws IOException {
+            if (!input.hasRemaining() && framing == Framing.ONE_SHOT) {
+                if (input.capacity() >= FileTransferProtocol.MAX_FRAME_LENGTH) {
+                    throw new FileTransferProtocol.FileTransferProtocolException();
+                }
+                input.flip();
+                reserve(2 * input.capacity());
+                input.compact();
+            }
+
+            int ops = 0;
+            if (!inputClosed && input.hasRemaining()) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (!chunks.isEmpty() && !paused) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (ops == 0 && chunks.isEmpty() && !processing && (inputClosed || framing == Framing.DONE)) {
+                close();
+                return;
+            }
+            key.interestOps(ops);
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+            metrics.connectionClosed();
+            onClose.run();
+            for (Chunk chunk : chunks) {
+                chunk.close();
+            }
+            chunks.clear();
+            if (continuation != null) {
+                continuation.close();
+                continuation = null;
+            }
+        }
+    }
+
+    /**
+     * Response to one query that is written by a worker. Its chunks are moved to the connection
+     * by the event loop when the worker completes it.
+     */
+    private class Response implements FileTransferProtocol.ResponseWriter {
+
+        private final Connection connection;
+        private final boolean framed;
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private final DataOutputStream dataOutput = new DataOutputStream(data);
+        private final List<Chunk> chunks = new ArrayList<>();
+        private FileTransferProtocol.Continuation continuation;
+        private Exception failure;
+
+        private Response(@NotNull Connection connection, boolean framed) {
+            this.connection = connection;
+            this.framed = framed;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        @NotNull
+        public DataOutputStream getDataOutput() {
+            return dataOutput;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void writeFile(@NotNull File file, long position, long count) {
+            flushData();
+            chunks.add(new FileChunk(file, position, count, metrics));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void writeRegion(@NotNull File file, @NotNull ByteBuffer region) {
+            flushData();
+            chunks.add(new RegionChunk(file, region, metrics));
+        }
+
+        /**
+         * Reads and digests file on workers step by step, so the digest follows the content in the response
+         * but is computed when the bytes are queued rather than when the socket accepts them.
+         */
+        @Override
+        public void writeDigestedFile(@NotNull File file, long count, @NotNull FileDigestCache.Digester digester) {
+            writeLater(new DigestingStep(file, count, digester, metrics));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void writeEncoded(@NotNull Compression.Encoder encoder) {
+            writeLater(new EncodingStep(encoder));
+        }
+
+        /**
+         * Keeps the continuation, so that the connection passes it to a worker when the chunks
+         * queued before are sent.
+         */
+        @Override
+        public void writeLater(@NotNull FileTransferProtocol.Continuation continuation) {
+            flushData();
+            this.continuation = continuation;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isFramed() {
+            return framed;
+        }
+
+        private void flushData() {
+            if (data.size() > 0) {
+                chunks.add(new BufferChunk(ByteBuffer.wrap(data.toByteArray()), Throttle.Shaping.NONE));
+                data.reset();
+            }
+        }
+
+        private void close() {
+            for (Chunk chunk : chunks) {
+                chunk.close();
+            }
+            if (continuation != null) {
+                continuation.close();
+            }
+        }
+    }
+
+    /**
+     * Compresses the next few blocks of data on a worker and queues copies of them as ready buffers.
+     * Next blocks are compressed only when the connection has sent most of the queued ones.
+     */
+    private static class EncodingStep implements FileTransferProtocol.Continuation {
+
+        private final Compression.Encoder encoder;
+
+        private EncodingStep(@NotNull Compression.Encoder encoder) {
+            this.encoder = encoder;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        @Nullable
+        public FileTransferProtocol.Continuation writeNext(@NotNull FileTransferProtocol.ResponseWriter output)
+                throws IOException {
+            Response response = (Response) output;
+            response.flushData();
+            for (int i = 0; i < BLOCKS_PER_STEP; i++) {
+                ByteBuffer block = encoder.nextBlock();
+                if (block == null) {
+                    encoder.close();
+                    return null;
+                }
+                ByteBuffer copy = ByteBuffer.allocate(block.remaining());
+                copy.put(block).flip();
+                response.chunks.add(new BufferChunk(copy, Throttle.Shaping.WAIT));
+            }
+            return this;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            closeQuietly(encoder);
+        }
+    }
+
+    /**
+     * Reads the next few blocks of file on a worker, feeds them to the digester and queues them as ready
+     * buffers. The digest is queued after the last block. Next blocks are read only when the connection
+     * has sent most of the queued ones. Transfer is reported when the last block is written to the socket.
+     */
+    private static class DigestingStep implements FileTransferProtocol.Continuation {
+
+        private final File file;
+        private final long count;
+        private final FileDigestCache.Digester digester;
+        private final Throttle.Shaping shaping;
+        private final MetricsRegistry metrics;
+        private FileChannel channel;
+        private long read = 0;
+        private long sent = 0;
+        private long start = -1;
+
+        private DigestingStep(@NotNull File file, long count, @NotNull FileDigestCache.Digester digester,
+                              @NotNull MetricsRegistry metrics) {
+            this.file = file;
+            this.count = count;
+            this.digester = digester;
+            this.shaping = Throttle.shapingOf(count);
+            this.metrics = metrics;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        @Nullable
+        public FileTransferProtocol.Continuation writeNext(@NotNull FileTransferProtocol.ResponseWriter output)
+                throws IOException {
+            Response response = (Response) output;
+            response.flushData();
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            for (int i = 0; i < BLOCKS_PER_STEP && read < count; i++) {
+                ByteBuffer block = ByteBuffer.allocate((int) Math.min(DIGESTED_BLOCK_SIZE, count - read));
+                while (block.hasRemaining()) {
+                    if (channel.read(block) == -1) {
+                        throw new FileTransferProtocol.FileTruncatedException(file, read + block.position(), count);
+                    }
+                }
+                block.flip();
+                digester.update(block);
+                response.chunks.add(new BlockChunk(block));
+                read += block.remaining();
+            }
+            if (read < count) {
+                return this;
+            }
+            channel.close();
+            response.getDataOutput().write(digester.finish());
+            return null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            if (channel != null) {
+                closeQuietly(channel);
+            }
+        }
+
+        /**
+         * Block of file that was read and digested by a worker.
+         */
+        private class BlockChunk extends BufferChunk {
+
+            private BlockChunk(@NotNull ByteBuffer block) {
+                super(block, shaping);
+            }
+
+            @Override
+            public int writeTo(@NotNull SocketChannel socket, int limit) throws IOException {
+                if (start == -1) {
+                    start = System.nanoTime();
+                }
+                int written = super.writeTo(socket, limit);
+                sent += written;
+                if (sent == count) {
+                    FileTransferProtocol.reportTransfer(metrics, file, sent, System.nanoTime() - start);
+                }
+                return written;
+            }
+        }
+    }
+
+    /**
+     * Describes how queries are delimited on the connection.
+     */
+    private enum Framing {
+        UNKNOWN, ONE_SHOT, FRAMED, DONE
+    }
+
+    /**
+     * Part of the response waiting to be written to the socket.
+     */
+    private interface Chunk {
+
+        /**
+         * Writes next part of the chunk without blocking.
+         * @param channel socket to write to
+         * @param limit maximum number of bytes to write
+         * @return number of bytes written
+         * @throws IOException if any error occurred while writing
+         */
+        int writeTo(@NotNull SocketChannel channel, int limit) throws IOException;
+
+        /**
+         * Checks whether the chunk is written completely.
+         * @return {@code true} if nothing is left to write; {@code false} otherwise
+         */
+        boolean isDone();
+
+        /**
+         * Returns how the chunk is shaped if the connection is throttled.
+         * @return shaping of the chunk
+         */
+        @NotNull Throttle.Shaping getShaping();
+
+        /**
+         * Releases resources held by the chunk.
+         */
+        void close();
+    }
+
+    /**
+     * Chunk of bytes that are already in memory.
+     */
+    private static class BufferChunk implements Chunk {
+
+        private final ByteBuffer buffer;
+        private final Throttle.Shaping shaping;
+
+        private BufferChunk(@NotNull ByteBuffer buffer, @NotNull Throttle.Shaping shaping) {
+            this.buffer = buffer;
+            this.shaping = shaping;
+        }
+
+        @Override
+        public int writeTo(@NotNull SocketChannel channel, int limit) throws IOException {
+            int end = buffer.limit();
+            buffer.limit(buffer.position() + Math.min(limit, buffer.remaining()));
+            try {
+                return channel.write(buffer);
+            } finally {
+                buffer.limit(end);
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return !buffer.hasRemaining();
+        }
+
+        @Override
+        @NotNull
+        public Throttle.Shaping getShaping() {
+            return shaping;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Chunk that writes part of memory-mapped file to the socket directly from the mapping.
+     */
+    private static class RegionChunk implements Chunk {
+
+        private final File file;
+        private final ByteBuffer region;
+        private final long size;
+        private final MetricsRegistry metrics;
+        private long start = -1;
+
+        private RegionChunk(@NotNull File file, @NotNull ByteBuffer region, @NotNull MetricsRegistry metrics) {
+            this.file = file;
+            this.region = region;
+            this.size = region.remaining();
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int writeTo(@NotNull SocketChannel socket, int limit) throws IOException {
+            if (start == -1) {
+                start = System.nanoTime();
+            }
+            int end = region.limit();
+            region.limit(region.position() + Math.min(limit, region.remaining()));
+            int written;
+            try {
+                written = socket.write(region);
+            } catch (InternalError e) {
+                throw new FileTransferProtocol.MappedFileTruncatedException(file, e);
+            } finally {
+                region.limit(end);
+            }
+            if (!region.hasRemaining()) {
+                FileTransferProtocol.reportTransfer(metrics, file, size, System.nanoTime() - start);
+            }
+            return written;
+        }
+
+        @Override
+        public boolean isDone() {
+            return !region.hasRemaining();
+        }
+
+        @Override
+        @NotNull
+        public Throttle.Shaping getShaping() {
+            return Throttle.shapingOf(size);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Chunk that transfers region of file to the socket with {@link FileChannel#transferTo}.
+     * File is opened only when its turn comes, so that responses of many files do not hold
+     * a descriptor for each of them.
+     */
+    private static class FileChunk implements Chunk {
+
+        private final File file;
+        private FileChannel channel;
+        private final Throttle.Shaping shaping;
+        private final MetricsRegistry metrics;
+        private long position;
+        private long remaining;
+        private long sent = 0;
+        private long start = -1;
+
+        private FileChunk(@NotNull File file, long position, long count, @NotNull MetricsRegistry metrics) {
+            this.file = file;
+            this.shaping = Throttle.shapingOf(count);
+            this.metrics = metrics;
+            this.position = position;
+            this.remaining = count;
+        }
+
+        @Override
+        public int writeTo(@NotNull SocketChannel socket, int limit) throws IOException {
+            if (start == -1) {
+                start = System.nanoTime();
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            long transferred = channel.transferTo(position, Math.min(limit, remaining), socket);
+            if (transferred == 0 && position >= channel.size()) {
+                throw new FileTransferProtocol.FileTruncatedException(file, sent, sent + remaining);
+            }
+            position += transferred;
+            remaining -= transferred;
+            sent += transferred;
+            if (remaining == 0) {
+                FileTransferProtocol.reportTransfer(metrics, file, sent, System.nanoTime() - start);
+            }
+            return (int) transferred;
+        }
+
+        @Override
+        public boolean isDone() {
+            return remaining == 0;
+        }
+
+        @Override
+        @NotNull
+        public Throttle.Shaping getShaping() {
+            return shaping;
+        }
+
+        @Override
+        public void close() {
+            if (channel != null) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+}
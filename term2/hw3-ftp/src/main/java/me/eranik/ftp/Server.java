@@ -1,14 +1,37 @@
 package me.eranik.ftp;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
@@ -17,18 +40,97 @@ import java.util.logging.Logger;
  */
 public class Server {
 
+    /**
+     * Maximum number of file digests kept in memory.
+     */
+    private static final int DIGEST_CACHE_CAPACITY = 10000;
+
     private Logger logger = Logger.getGlobal();
     private int portNumber;
-    private boolean running;
+    private volatile boolean running;
+
+    private ConnectionMode connectionMode = ConnectionMode.THREAD_PER_CONNECTION;
+    private int eventLoopCount = Runtime.getRuntime().availableProcessors();
+    private int queryWorkerCount = 2 * Runtime.getRuntime().availableProcessors();
+    private long listingCacheCapacity = 16 << 20;
+    private long mappedFileCacheCapacity = 0;
+    private final Map<String, CompressionCodec> compressionCodecs = new LinkedHashMap<>();
+
+    private int workerCount = 256;
+    private int connectionQueueCapacity = 256;
+    private int acceptBacklog = 50;
+    private int maxConnectionsPerAddress = 0;
+    private long connectionRateLimit = 0;
+    private long globalRateLimit = 0;
+
+    private volatile ThreadPoolExecutor workers;
+    private final Map<InetAddress, Integer> connectionsPerAddress = new ConcurrentHashMap<>();
+    private final AtomicInteger activeWorkerCount = new AtomicInteger();
+    private volatile MetricsRegistry metrics = new MetricsRegistry();
+
+    private FileTransferProtocol protocol;
+    private volatile ListingCache listingCache;
+    private final FileDigestCache digestCache = new FileDigestCache(DIGEST_CACHE_CAPACITY);
+    private volatile MappedFileCache mappedFileCache;
+    private TokenBucket globalBucket;
+
+    /**
+     * Describes available ways to serve client connections.
+     */
+    public enum ConnectionMode {
+        /**
+         * Every accepted connection is served by its own thread with blocking I/O.
+         */
+        THREAD_PER_CONNECTION,
+        /**
+         * Connections are served by a fixed number of event loops with non-blocking I/O.
+         */
+        SELECTOR,
+        /**
+         * Every accepted connection is served by its own virtual thread with blocking I/O.
+         * Requires Java 21 or newer.
+         */
+        VIRTUAL_THREADS;
+
+        public static ConnectionMode getEnum(String name) {
+            switch (name) {
+                case "threads":
+                    return THREAD_PER_CONNECTION;
+                case "selector":
+                    return SELECTOR;
+                case "virtual":
+                    return VIRTUAL_THREADS;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * Checks whether the mode may be used on the running JVM.
+         * @return {@code true} if the mode is supported; {@code false} otherwise
+         */
+        public boolean isSupported() {
+            if (this != VIRTUAL_THREADS) {
+                return true;
+            }
+            try {
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    }
 
     /**
      * Runs server on the specified port. Listens to clients and processes queries from them.
      * Also allows you to kill server by writing a special command.
-     * @param args list of arguments: first argument contains port number
+     * @param args list of arguments: first argument contains port number, optional second argument
+     *             contains connection mode ({@code threads}, {@code selector} or {@code virtual})
      */
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("Expected one argument: <port number>");
+        if (args.length != 1 && args.length != 2) {
+            System.err.println("Expected arguments: <port number> [threads|selector|virtual]");
             System.exit(1);
         }
 
@@ -40,20 +142,35 @@ public class Server {
             System.exit(2);
         }
 
-        final int finalPortNumber = portNumber;
+        Server instance = new Server(portNumber);
+        if (args.length == 2) {
+            ConnectionMode mode = ConnectionMode.getEnum(args[1]);
+            if (mode == null) {
+                System.err.println("Connection mode should be \"threads\", \"selector\" or \"virtual\".");
+                System.exit(3);
+            }
+            if (!mode.isSupported()) {
+                System.err.println("Virtual threads require Java 21 or newer.");
+                System.exit(4);
+            }
+            instance.setConnectionMode(mode);
+        }
 
-        Thread server = new Thread(() -> new Server(finalPortNumber).runServer());
+        Thread server = new Thread(instance::runServer);
         server.setDaemon(false);
         server.start();
 
 
         try (Scanner input = new Scanner(System.in)) {
             while (true) {
-                System.out.println("Type \"exit\" to stop server:");
+                System.out.println("Type \"stats\" to print metrics or \"exit\" to stop server:");
                 String query = input.nextLine();
                 if (query.equals("exit")) {
                     break;
                 }
+                if (query.equals("stats")) {
+                    System.out.print(instance.getMetrics().dump());
+                }
             }
         }
         server.interrupt();
@@ -66,13 +183,360 @@ public class Server {
     public Server(int portNumber) {
         this.portNumber = portNumber;
         this.running = false;
+        addCompressionCodec(new DeflateCodec());
+    }
+
+    /**
+     * Sets the way client connections are served. Should be called before the server is started.
+     * @param connectionMode specified connection mode
+     */
+    public void setConnectionMode(@NotNull ConnectionMode connectionMode) {
+        if (!connectionMode.isSupported()) {
+            throw new UnsupportedOperationException(connectionMode + " mode is not supported by this JVM");
+        }
+        this.connectionMode = connectionMode;
+    }
+
+    /**
+     * Sets number of event loops used in {@link ConnectionMode#SELECTOR} mode.
+     * Should be called before the server is started.
+     * @param eventLoopCount number of event loop threads
+     */
+    public void setEventLoopCount(int eventLoopCount) {
+        if (eventLoopCount <= 0) {
+            throw new IllegalArgumentException("Number of event loops should be positive");
+        }
+        this.eventLoopCount = eventLoopCount;
+    }
+
+    /**
+     * Sets number of threads that process queries received by event loops in {@link ConnectionMode#SELECTOR} mode.
+     * Event loops only read queries and write responses, while directories are listed and files are looked up
+     * by these threads, so that slow filesystem does not stall other connections. Default is twice the number
+     * of processors. Should be called before the server is started.
+     * @param queryWorkerCount number of query worker threads
+     */
+    public void setQueryWorkerCount(int queryWorkerCount) {
+        if (queryWorkerCount <= 0) {
+            throw new IllegalArgumentException("Number of query workers should be positive");
+        }
+        this.queryWorkerCount = queryWorkerCount;
+    }
+
+    /**
+     * Sets maximum memory taken by cached directory listings. Zero disables the cache.
+     * Should be called before the server is started.
+     * @param listingCacheCapacity capacity of the cache in bytes
+     */
+    public void setListingCacheCapacity(long listingCacheCapacity) {
+        if (listingCacheCapacity < 0) {
+            throw new IllegalArgumentException("Capacity of listing cache should be non-negative");
+        }
+        this.listingCacheCapacity = listingCacheCapacity;
+    }
+
+    /**
+     * Sets maximum total size of files that are kept memory-mapped and sent directly from their mappings.
+     * File is mapped after it was requested {@value MappedFileCache#MIN_HITS} times; when the capacity is reached,
+     * files that are requested more often replace the others. Zero disables mapping, which is the default.
+     * Should be called before the server is started.
+     * @param mappedFileCacheCapacity capacity of the cache in bytes
+     */
+    public void setMappedFileCacheCapacity(long mappedFileCacheCapacity) {
+        if (mappedFileCacheCapacity < 0) {
+            throw new IllegalArgumentException("Capacity of mapped file cache should be non-negative");
+        }
+        this.mappedFileCacheCapacity = mappedFileCacheCapacity;
+    }
+
+    /**
+     * Sets maximum number of threads that serve connections in {@link ConnectionMode#THREAD_PER_CONNECTION} mode.
+     * Idle threads finish after a minute. Default is 256. Should be called before the server is started.
+     * @param workerCount maximum number of worker threads
+     */
+    public void setWorkerCount(int workerCount) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Number of workers should be positive");
+        }
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Sets maximum number of accepted connections that wait for a free worker in
+     * {@link ConnectionMode#THREAD_PER_CONNECTION} mode. Connection that is accepted when all workers are busy
+     * and the queue is full is rejected: it is closed without reading any query. Zero means that connections
+     * are never queued. Default is 256. Should be called before the server is started.
+     * @param connectionQueueCapacity capacity of the queue
+     */
+    public void setConnectionQueueCapacity(int connectionQueueCapacity) {
+        if (connectionQueueCapacity < 0) {
+            throw new IllegalArgumentException("Capacity of connection queue should be non-negative");
+        }
+        this.connectionQueueCapacity = connectionQueueCapacity;
+    }
+
+    /**
+     * Sets maximum number of connections that operating system keeps until the server accepts them.
+     * Further connection attempts are refused by the operating system. Default is 50.
+     * Should be called before the server is started.
+     * @param acceptBacklog length of the accept backlog
+     */
+    public void setAcceptBacklog(int acceptBacklog) {
+        if (acceptBacklog <= 0) {
+            throw new IllegalArgumentException("Accept backlog should be positive");
+        }
+        this.acceptBacklog = acceptBacklog;
+    }
+
+    /**
+     * Sets maximum number of simultaneous connections from one address. Further connections from the same
+     * address are rejected until some of the previous ones are closed. Zero means no limit, which is the default.
+     * Should be called before the server is started.
+     * @param maxConnectionsPerAddress maximum number of connections per address
+     */
+    public void setMaxConnectionsPerAddress(int maxConnectionsPerAddress) {
+        if (maxConnectionsPerAddress < 0) {
+            throw new IllegalArgumentException("Maximum number of connections per address should be non-negative");
+        }
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+    }
+
+    /**
+     * Sets maximum rate of file content sent over one connection. Zero means that connections are not limited,
+     * which is the default. Headers and listings are never delayed and small files are sent at once,
+     * but they are counted against the limit. Should be called before the server is started.
+     * @param connectionRateLimit maximum number of bytes per second
+     */
+    public void setConnectionRateLimit(long connectionRateLimit) {
+        if (connectionRateLimit < 0) {
+            throw new IllegalArgumentException("Rate limit should be non-negative");
+        }
+        this.connectionRateLimit = connectionRateLimit;
+    }
+
+    /**
+     * Sets maximum rate of file content sent over all connections together. Concurrent transfers share
+     * the rate equally by taking turns to send quanta of their files. Zero means that the server is not limited,
+     * which is the default. Should be called before the server is started.
+     * @param globalRateLimit maximum number of bytes per second
+     */
+    public void setGlobalRateLimit(long globalRateLimit) {
+        if (globalRateLimit < 0) {
+            throw new IllegalArgumentException("Rate limit should be non-negative");
+        }
+        this.globalRateLimit = globalRateLimit;
+    }
+
+    /**
+     * Returns number of accepted connections that wait for a free worker.
+     * @return length of the connection queue
+     */
+    public int getQueuedConnectionCount() {
+        ThreadPoolExecutor executor = workers;
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * Returns number of threads that are serving connections at the moment in modes with blocking I/O.
+     * @return number of active workers
+     */
+    public int getActiveWorkerCount() {
+        return activeWorkerCount.get();
+    }
+
+    /**
+     * Returns number of connections that were closed without being served because the server was overloaded
+     * or the client's address had too many connections.
+     * @return number of rejected connections
+     */
+    public long getRejectedConnectionCount() {
+        return metrics.getRejectedConnectionCount();
+    }
+
+    /**
+     * Returns metrics of the current or the last run of the server. While the server is running,
+     * the same metrics are available through JMX.
+     * @return metrics of the server
+     */
+    @NotNull
+    public ServerMetricsMXBean getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Makes the codec available for compressed responses. Codec replaces the previously added one with
+     * the same name. Deflate codec is available by default. Should be called before the server is started.
+     * @param codec specified codec
+     */
+    public void addCompressionCodec(@NotNull CompressionCodec codec) {
+        if (codec.getName().isEmpty() || codec.getName().contains(",")) {
+            throw new IllegalArgumentException("Name of codec should be non-empty and should not contain commas");
+        }
+        compressionCodecs.put(codec.getName(), codec);
+    }
+
+    /**
+     * Returns number of list queries answered from the listing cache since the server was started.
+     * @return number of cache hits
+     */
+    public long getListingCacheHitCount() {
+        ListingCache cache = listingCache;
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    /**
+     * Returns number of list queries that walked the filesystem since the server was started.
+     * @return number of cache misses
+     */
+    public long getListingCacheMissCount() {
+        ListingCache cache = listingCache;
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    /**
+     * Returns number of get queries that used cached digest of file.
+     * @return number of cache hits
+     */
+    public long getDigestCacheHitCount() {
+        return digestCache.getHitCount();
+    }
+
+    /**
+     * Returns number of get queries that had to read file to compute its digest.
+     * @return number of cache misses
+     */
+    public long getDigestCacheMissCount() {
+        return digestCache.getMissCount();
+    }
+
+    /**
+     * Returns number of files sent from their memory mappings since the server was started.
+     * @return number of cache hits
+     */
+    public long getMappedFileCacheHitCount() {
+        MappedFileCache cache = mappedFileCache;
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    /**
+     * Returns number of files read from disk while mapping was enabled since the server was started.
+     * @return number of cache misses
+     */
+    public long getMappedFileCacheMissCount() {
+        MappedFileCache cache = mappedFileCache;
+        return cache == null ? 0 : cache.getMissCount();
     }
 
     /**
      * Runs server on the specified port and listens for connections.
      */
     public void runServer() {
-        try (ServerSocket server = new ServerSocket(portNumber)) {
+        listingCache = null;
+        if (listingCacheCapacity > 0) {
+            try {
+                listingCache = new ListingCache(listingCacheCapacity);
+            } catch (IOException e) {
+                logger.warning("Listing cache is disabled because directories cannot be watched\n" + e.getMessage());
+            }
+        }
+        mappedFileCache = mappedFileCacheCapacity > 0 ? new MappedFileCache(mappedFileCacheCapacity) : null;
+        globalBucket = globalRateLimit > 0 ? new TokenBucket(globalRateLimit) : null;
+        metrics = new MetricsRegistry();
+        protocol = new FileTransferProtocol(listingCache, compressionCodecs, digestCache, mappedFileCache, metrics);
+        ObjectName metricsName = registerMetrics();
+
+        try {
+            if (connectionMode == ConnectionMode.SELECTOR) {
+                runSelectorServer();
+            } else if (connectionMode == ConnectionMode.VIRTUAL_THREADS) {
+                runBlockingServer(newVirtualThreadExecutor());
+            } else {
+                runBlockingServer(newWorkerPool());
+            }
+        } finally {
+            if (listingCache != null) {
+                try {
+                    listingCache.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (metricsName != null) {
+                unregisterMetrics(metricsName);
+            }
+        }
+    }
+
+    /**
+     * Registers metrics of the server in the platform MBean server, replacing metrics of the previous run
+     * on the same port.
+     * @return name of the registered bean or {@code null} if metrics cannot be registered
+     */
+    @Nullable
+    private ObjectName registerMetrics() {
+        try {
+            MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("me.eranik.ftp:type=Server,port=" + portNumber);
+            if (beans.isRegistered(name)) {
+                beans.unregisterMBean(name);
+            }
+            beans.registerMBean(new StandardMBean(metrics, ServerMetricsMXBean.class, true), name);
+            return name;
+        } catch (JMException e) {
+            logger.warning("Metrics are not available through JMX\n" + e.getMessage());
+            return null;
+        }
+    }
+
+    private void unregisterMetrics(@NotNull ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException ignored) {
+        }
+    }
+
+    /**
+     * Creates bounded pool of platform threads that serve connections.
+     */
+    @NotNull
+    private ExecutorService newWorkerPool() {
+        BlockingQueue<Runnable> queue = connectionQueueCapacity == 0
+                ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(connectionQueueCapacity);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workerCount, workerCount, 1, TimeUnit.MINUTES, queue,
+                runnable -> {
+                    Thread thread = new Thread(runnable);
+                    thread.setDaemon(false);
+                    return thread;
+                },
+                (task, pool) -> ((ConnectionTask) task).reject());
+        executor.allowCoreThreadTimeOut(true);
+        workers = executor;
+        return executor;
+    }
+
+    /**
+     * Creates executor that starts a new virtual thread for each task. Virtual threads are looked up
+     * reflectively, so the server still runs on Java 8 in other modes.
+     * @return executor of virtual threads
+     * @throws UnsupportedOperationException if virtual threads are not supported by the running JVM
+     */
+    @NotNull
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * Accepts connections and passes each of them to the executor that serves it with blocking I/O.
+     * @param executor executor that runs connection tasks
+     */
+    private void runBlockingServer(@NotNull ExecutorService executor) {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            ServerSocket server = channel.socket();
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(portNumber), acceptBacklog);
             logger.info("Server " + server.getInetAddress() + " is running on port " + portNumber);
             server.setSoTimeout(2000);
 
@@ -80,158 +544,191 @@ public class Server {
             while (!Thread.interrupted()) {
                 try {
                     Socket connection = server.accept();
+                    metrics.connectionAccepted();
+                    connection.setTcpNoDelay(true);
                     logger.info(connection.getInetAddress() + " connected");
 
-                    Thread thread = new Thread(() -> {
-                        try {
-                            FileTransferProtocol.processConnection(connection);
-                            connection.close();
-                        } catch (IOException e) {
-                            logger.warning("Error occurred when listening for connection\n" + e.getMessage());
-                        }
-                    });
-                    thread.setDaemon(false);
-                    thread.start();
-
-                    logger.info(connection.getInetAddress() + " disconnected");
+                    if (acquireAddress(connection.getInetAddress())) {
+                        executor.execute(new ConnectionTask(connection));
+                    } else {
+                        reject(connection.getInetAddress(), connection);
+                    }
                 } catch (SocketTimeoutException skip) {
+                } catch (ClosedByInterruptException e) {
+                    break;
                 } catch (IOException e) {
                     logger.warning("Error occurred when accepting connection\n" + e.getMessage());
                 }
             }
-            running = false;
-
-            logger.info("Server is closed");
         } catch (IOException e) {
             logger.warning("Error occurred when opening socket on port " + portNumber + "\n" + e.getMessage());
+        } finally {
+            executor.shutdown();
+            workers = null;
+            running = false;
+            logger.info("Server is closed");
         }
     }
 
     /**
-     * Checks if server is running.
-     * @return {@code true} if server is running; {@code false} otherwise
+     * Creates throttle for the new connection.
+     * @return throttle or {@code null} if rate is not limited
      */
-    public boolean isRunning() {
-        return running;
+    @Nullable
+    private Throttle newThrottle() {
+        if (connectionRateLimit == 0 && globalBucket == null) {
+            return null;
+        }
+        return new Throttle(connectionRateLimit > 0 ? new TokenBucket(connectionRateLimit) : null, globalBucket);
     }
 
     /**
-     * Provides file transfer protocol implementation for processing queries and forming responses to them.
+     * Counts connection from the specified address unless the address has too many connections already.
+     * @param address address of the client
+     * @return {@code true} if connection may be served; {@code false} if it should be rejected
      */
-    private static class FileTransferProtocol {
+    private boolean acquireAddress(@NotNull InetAddress address) {
+        boolean[] acquired = {false};
+        connectionsPerAddress.compute(address, (key, count) -> {
+            int current = count == null ? 0 : count;
+            if (maxConnectionsPerAddress > 0 && current >= maxConnectionsPerAddress) {
+                return count;
+            }
+            acquired[0] = true;
+            return current + 1;
+        });
+        return acquired[0];
+    }
 
-        private static final int BUFFER_SIZE = 4096;
+    /**
+     * Stops counting finished connection from the specified address.
+     * @param address address of the client
+     */
+    private void releaseAddress(@NotNull InetAddress address) {
+        connectionsPerAddress.computeIfPresent(address, (key, count) -> count == 1 ? null : count - 1);
+    }
 
-        /**
-         * Reads path from the connection's query.
-         * @param input stream that allows to read client's query
-         * @return path to the file or directory from the client's query
-         * @throws IOException if any other error occurred while listening for connection
-         */
-        private static String readPath(@NotNull DataInputStream input) throws IOException {
-            StringBuilder path = new StringBuilder();
-            byte[] buffer = new byte[BUFFER_SIZE];
-            for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
-                path.append(new String(buffer, 0, read));
-            }
-            return path.toString();
+    /**
+     * Closes connection that cannot be served.
+     */
+    private void reject(@NotNull InetAddress address, @NotNull Closeable connection) {
+        metrics.connectionRejected();
+        logger.warning("Connection from " + address + " is rejected");
+        try {
+            connection.close();
+        } catch (IOException ignored) {
         }
+    }
 
-        /**
-         * Prints tree of parent's directory to the string.
-         * @param parent specified parent's directory
-         * @param list list to store files and directories from the directory tree of specified directory
-         * @return number of files and directories in he directory tree of specified directory
-         */
-        private static int getDirectoryTree(@NotNull File parent, @NotNull StringBuilder list) {
-            int size = 0;
-            if (parent.isDirectory()) {
-                File[] children = parent.listFiles();
-                Arrays.sort(children, Comparator.comparing(File::getName));
-
-                for (File child : children) {
-                    list.append(child.getPath());
-                    list.append(' ');
-                    list.append(child.isDirectory());
-                    list.append('\n');
-                    size += 1 + getDirectoryTree(child, list);
-                }
-            }
-            return size;
-        }
+    /**
+     * Serves one connection in the worker thread.
+     */
+    private class ConnectionTask implements Runnable {
 
-        /**
-         * Sends list of files and directories from the directory tree of specified directory to the client.
-         * @param output stream that allows to write response to client
-         * @param path path to the specified directory
-         * @throws IOException if any other error occurred while listening for connection
-         */
-        private static void processListQuery(@NotNull DataOutputStream output, @NotNull String path) throws IOException {
-            File file = new File(path);
-            StringBuilder list = new StringBuilder();
-            int size = getDirectoryTree(file, list);
-            output.writeInt(size);
-            output.write(list.toString().getBytes());
+        private final Socket connection;
+        private final long acceptedAt = System.nanoTime();
+
+        private ConnectionTask(@NotNull Socket connection) {
+            this.connection = connection;
         }
 
-        /**
-         * Sends specified file to the client.
-         * @param output stream that allows to write response to client
-         * @param path path to the specified directory
-         * @throws IOException if any other error occurred while listening for connection
-         */
-        private static void processGetQuery(@NotNull DataOutputStream output, @NotNull String path) throws IOException {
-            File file = new File(path);
-            if (!file.isFile()) {
-                output.writeLong(-1);
-                return;
-            }
-            output.writeLong(file.length());
-            try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
-                byte[] buffer = new byte[BUFFER_SIZE];
-                for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
-                    output.write(buffer, 0, read);
-                }
+        @Override
+        public void run() {
+            activeWorkerCount.incrementAndGet();
+            metrics.recordSince(MetricsRegistry.Stage.ACCEPT, acceptedAt);
+            metrics.connectionOpened();
+            try {
+                protocol.processConnection(connection, newThrottle());
+                connection.close();
+            } catch (IOException e) {
+                logger.warning("Error occurred when listening for connection\n" + e.getMessage());
+            } finally {
+                metrics.connectionClosed();
+                activeWorkerCount.decrementAndGet();
+                releaseAddress(connection.getInetAddress());
+                logger.info(connection.getInetAddress() + " disconnected");
             }
         }
 
         /**
-         * Processes query from the specified connection and sends response to it.
-         * @param connection specified connection to process query from
-         * @throws FileTransferProtocolException if query does not satisfy file transfer protocol
-         * @throws IOException if any other error occurred while listening for connection
+         * Closes connection that cannot be queued.
          */
-        static void processConnection(@NotNull Socket connection) throws IOException {
-            try (DataInputStream input = new DataInputStream(connection.getInputStream());
-                 DataOutputStream output = new DataOutputStream(connection.getOutputStream())
-            ) {
-                int type = input.readInt();
-                String path = readPath(input);
-
-                if (type == QueryType.listQuery.getValue()) {
-                    processListQuery(output, path);
-                    output.flush();
-                    return;
-                }
-                if (type == QueryType.getQuery.getValue()) {
-                    processGetQuery(output, path);
-                    output.flush();
-                    return;
-                }
+        private void reject() {
+            releaseAddress(connection.getInetAddress());
+            Server.this.reject(connection.getInetAddress(), connection);
+        }
+    }
 
-                throw new FileTransferProtocolException();
+    /**
+     * Accepts connections without blocking and distributes them among a fixed number of event loops.
+     */
+    private void runSelectorServer() {
+        Thread[] loops = new Thread[eventLoopCount];
+        ExecutorService queryWorkers = Executors.newFixedThreadPool(queryWorkerCount, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ServerSocketChannel server = ServerSocketChannel.open();
+             Selector selector = Selector.open()
+        ) {
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(new InetSocketAddress(portNumber), acceptBacklog);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+
+            SelectorEventLoop[] eventLoops = new SelectorEventLoop[eventLoopCount];
+            for (int i = 0; i < eventLoopCount; i++) {
+                eventLoops[i] = new SelectorEventLoop(protocol, queryWorkers);
+                loops[i] = new Thread(eventLoops[i]);
+                loops[i].setDaemon(true);
+                loops[i].start();
             }
-        }
+            logger.info("Server " + server.getLocalAddress() + " is running on port " + portNumber
+                    + " with " + eventLoopCount + " event loops");
 
-        /**
-         * Is thrown when client's query does not satisfy the file transfer protocol.
-         */
-        static class FileTransferProtocolException extends IOException {
-            FileTransferProtocolException() {
-                super("The query does not match the protocol");
+            running = true;
+            int next = 0;
+            while (!Thread.interrupted()) {
+                selector.select();
+                selector.selectedKeys().clear();
+                for (SocketChannel connection = server.accept(); connection != null; connection = server.accept()) {
+                    metrics.connectionAccepted();
+                    logger.info(connection.getRemoteAddress() + " connected");
+                    connection.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    InetAddress address = connection.socket().getInetAddress();
+                    if (!acquireAddress(address)) {
+                        reject(address, connection);
+                        continue;
+                    }
+                    eventLoops[next].register(connection, newThrottle(), () -> {
+                        releaseAddress(address);
+                        logger.info(address + " disconnected");
+                    });
+                    next = (next + 1) % eventLoopCount;
+                }
             }
+        } catch (ClosedByInterruptException skip) {
+        } catch (IOException e) {
+            logger.warning("Error occurred when opening socket on port " + portNumber + "\n" + e.getMessage());
+        } finally {
+            for (Thread loop : loops) {
+                if (loop != null) {
+                    loop.interrupt();
+                }
+            }
+            queryWorkers.shutdown();
+            running = false;
+            logger.info("Server is closed");
         }
+    }
 
+    /**
+     * Checks if server is running.
+     * @return {@code true} if server is running; {@code false} otherwise
+     */
+    public boolean isRunning() {
+        return running;
     }
 
 }
@@ -0,0 +1,95 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.beans.ConstructorProperties;
+import java.util.Map;
+
+/**
+ * Management interface of server metrics. While the server is running, its metrics are registered
+ * in the platform MBean server as {@code me.eranik.ftp:type=Server,port=<port number>}.
+ */
+public interface ServerMetricsMXBean {
+
+    /**
+     * Returns number of connections that are being served.
+     * @return number of open connections
+     */
+    int getActiveConnectionCount();
+
+    /**
+     * Returns number of connections accepted since the server was started, including rejected ones.
+     * @return number of accepted connections
+     */
+    long getAcceptedConnectionCount();
+
+    /**
+     * Returns number of connections rejected since the server was started.
+     * @return number of rejected connections
+     */
+    long getRejectedConnectionCount();
+
+    /**
+     * Returns number of bytes written to clients since the server was started.
+     * @return number of sent bytes
+     */
+    long getBytesSent();
+
+    /**
+     * Returns number of queries of each type processed since the server was started.
+     * @return numbers of queries by names of their types
+     */
+    @NotNull Map<String, Long> getQueryCounts();
+
+    /**
+     * Returns summaries of durations of each stage of serving queries.
+     * @return summaries by names of stages
+     */
+    @NotNull Map<String, Latency> getLatencies();
+
+    /**
+     * Formats all metrics as plain text.
+     * @return metrics, one line per counter or stage
+     */
+    @NotNull String dump();
+
+    /**
+     * Summary of durations of one stage.
+     */
+    class Latency {
+        private final long count;
+        private final double meanMillis;
+        private final double medianMillis;
+        private final double p99Millis;
+        private final double maxMillis;
+
+        @ConstructorProperties({"count", "meanMillis", "medianMillis", "p99Millis", "maxMillis"})
+        public Latency(long count, double meanMillis, double medianMillis, double p99Millis, double maxMillis) {
+            this.count = count;
+            this.meanMillis = meanMillis;
+            this.medianMillis = medianMillis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        public double getMedianMillis() {
+            return medianMillis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package me.eranik.ftp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the rate of file content sent over one connection by its own token bucket and the bucket shared
+ * by all connections of the server. Content is granted by quanta, so concurrent transfers take turns
+ * and share the rate equally.
+ * <p>
+ * Only file content is shaped. Headers and listings are never delayed, and files that are not larger than
+ * {@link #SMALL_TRANSFER_SIZE} are sent at once and only charged to the buckets, so small requests keep
+ * low latency while large downloads use the rest of the bandwidth.
+ */
+class Throttle {
+
+    /**
+     * Maximum number of bytes granted at once.
+     */
+    static final int QUANTUM = 16 * FileTransferProtocol.BUFFER_SIZE;
+
+    /**
+     * Maximum size of file that is sent without waiting for tokens.
+     */
+    static final long SMALL_TRANSFER_SIZE = QUANTUM;
+
+    /**
+     * Describes how part of response is shaped.
+     */
+    enum Shaping {
+        /**
+         * Part is sent at once and is not counted.
+         */
+        NONE,
+        /**
+         * Part is sent at once, but its size is charged to the buckets.
+         */
+        CHARGE,
+        /**
+         * Part is sent only as tokens become available.
+         */
+        WAIT
+    }
+
+    private final TokenBucket connection;
+    private final TokenBucket global;
+
+    /**
+     * Creates throttle of one connection.
+     * @param connection bucket of the connection or {@code null} if the connection is not limited
+     * @param global bucket shared by all connections or {@code null} if the server is not limited
+     */
+    Throttle(@Nullable TokenBucket connection, @Nullable TokenBucket global) {
+        this.connection = connection;
+        this.global = global;
+    }
+
+    /**
+     * Chooses how file content of the specified size is shaped.
+     * @param size number of bytes of file content
+     * @return {@link Shaping#CHARGE} for small files; {@link Shaping#WAIT} otherwise
+     */
+    @NotNull
+    static Shaping shapingOf(long size) {
+        return size <= SMALL_TRANSFER_SIZE ? Shaping.CHARGE : Shaping.WAIT;
+    }
+
+    /**
+     * Waits until both buckets have tokens and takes them.
+     * @param wanted maximum number of bytes to be sent
+     * @return number of bytes that may be sent, which is positive if {@code wanted} is positive
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    long acquire(long wanted) throws InterruptedIOException {
+        long granted = Math.min(wanted, QUANTUM);
+        if (connection != null) {
+            granted = connection.take(granted);
+        }
+        if (global != null) {
+            long taken = global.take(granted);
+            if (connection != null) {
+                connection.charge(taken - granted);
+            }
+            granted = taken;
+        }
+        return granted;
+    }
+
+    /**
+     * Takes tokens that are available in both buckets without waiting.
+     * @param wanted maximum number of bytes to be sent
+     * @return number of bytes that may be sent, which is zero if some bucket is empty
+     */
+    long tryAcquire(long wanted) {
+        long granted = Math.min(wanted, QUANTUM);
+        if (connection != null) {
+            granted = connection.tryTake(granted);
+        }
+        if (global != null && granted > 0) {
+            long taken = global.tryTake(granted);
+            if (connection != null) {
+                connection.charge(taken - granted);
+            }
+            granted = taken;
+        }
+        return granted;
+    }
+
+    /**
+     * Returns granted bytes that were not sent.
+     * @param count number of unused bytes
+     */
+    void release(long count) {
+        charge(-count);
+    }
+
+    /**
+     * Counts bytes that were sent without waiting.
+     * @param count number of sent bytes
+     */
+    void charge(long count) {
+        if (count == 0) {
+            return;
+        }
+        if (connection != null) {
+            connection.charge(count);
+        }
+        if (global != null) {
+            global.charge(count);
+        }
+    }
+
+    /**
+     * Returns time after which both buckets have tokens.
+     * @return time in nanoseconds or zero if tokens are available already
+     */
+    long getDelayNanos() {
+        long delay = connection == null ? 0 : connection.getDelayNanos();
+        return global == null ? delay : Math.max(delay, global.getDelayNanos());
+    }
+}
@@ -0,0 +1,106 @@
+package me.eranik.ftp;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket that limits the rate of sent bytes. Bucket is refilled continuously at the specified rate
+ * up to its capacity, so short bursts are allowed after idle periods. Bytes that are sent without waiting
+ * may be charged to the bucket, which then goes into debt that is paid off by those who wait.
+ * <p>
+ * Threads that wait for tokens are served in order of their arrival and each of them takes at most
+ * the requested amount, so transfers that request tokens by small quanta share the rate equally.
+ */
+class TokenBucket {
+
+    private final long rate;
+    private final long capacity;
+    private final ReentrantLock waiters = new ReentrantLock(true);
+
+    private double tokens;
+    private long updated = System.nanoTime();
+
+    /**
+     * Creates full bucket that lets the specified number of bytes per second.
+     * Capacity of the bucket is the amount refilled in a tenth of second, but not less than one buffer.
+     * @param rate number of bytes per second
+     */
+    TokenBucket(long rate) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("Rate should be positive");
+        }
+        this.rate = rate;
+        this.capacity = Math.max(rate / 10, FileTransferProtocol.BUFFER_SIZE);
+        this.tokens = capacity;
+    }
+
+    /**
+     * Returns number of bytes per second let by the bucket.
+     * @return rate of the bucket
+     */
+    long getRate() {
+        return rate;
+    }
+
+    /**
+     * Takes available tokens without waiting.
+     * @param wanted maximum number of tokens to take
+     * @return number of taken tokens, which is zero if there are no tokens
+     */
+    synchronized long tryTake(long wanted) {
+        refill();
+        long taken = (long) Math.min(wanted, Math.max(tokens, 0));
+        tokens -= taken;
+        return taken;
+    }
+
+    /**
+     * Waits until there are tokens and takes them. Waiting threads are served in order of their arrival.
+     * @param wanted maximum number of tokens to take
+     * @return number of taken tokens, which is positive if {@code wanted} is positive
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    long take(long wanted) throws InterruptedIOException {
+        waiters.lock();
+        try {
+            while (true) {
+                long taken = tryTake(wanted);
+                if (taken > 0 || wanted <= 0) {
+                    return taken;
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.max(getDelayNanos(), 1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        } finally {
+            waiters.unlock();
+        }
+    }
+
+    /**
+     * Removes the specified number of tokens even if it leaves the bucket in debt.
+     * Negative number returns unused tokens.
+     * @param count number of tokens
+     */
+    synchronized void charge(long count) {
+        refill();
+        tokens = Math.min(tokens - count, capacity);
+    }
+
+    /**
+     * Returns time after which at least one token is available.
+     * @return time in nanoseconds or zero if tokens are available already
+     */
+    synchronized long getDelayNanos() {
+        refill();
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * 1e9 / rate);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(tokens + (now - updated) * rate / 1e9, capacity);
+        updated = now;
+    }
+}
@@ -0,0 +1,141 @@
+package me.eranik.ftp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControlTest {
+
+    private static String hostName = "localhost";
+    private static int portNumber = 12345;
+    private volatile Server server;
+    private Thread serverThread;
+
+    private String listQuery = "list " + Paths.get("src", "test", "resources", "1", "4").toString();
+    private String listResult = "1\n" + Paths.get("src", "test", "resources", "1", "4", "hello.java") + " false";
+    private String errorResult = "Error occurred while getting response from server.\n"
+            + "Check whether your query is correct or try again later.";
+
+    private void startServer(Server instance) throws InterruptedException {
+        serverThread = new Thread(() -> {
+            server = instance;
+            instance.runServer();
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        while (server == null || !server.isRunning()) {
+            Thread.sleep(100);
+        }
+    }
+
+    @AfterEach
+    void takeDown() throws InterruptedException {
+        while (server.isRunning()) {
+            serverThread.interrupt();
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Opens connection that occupies the server until it is closed: server waits for the first query.
+     */
+    private Socket openIdleConnection() throws IOException {
+        Socket socket = new Socket(hostName, portNumber);
+        DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+        output.writeInt(FileTransferProtocol.FRAMED_PROTOCOL);
+        output.flush();
+        return socket;
+    }
+
+    private String runQuery(String query) {
+        ByteArrayInputStream input = new ByteArrayInputStream(query.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new Client(hostName, portNumber, input, output).runClient();
+        return output.toString().trim();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            if (condition.getAsBoolean()) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        fail("Condition was not satisfied in time");
+    }
+
+    @Test
+    void testConnectionIsRejectedWhenWorkersAreBusy() throws Exception {
+        Server instance = new Server(portNumber);
+        instance.setWorkerCount(1);
+        instance.setConnectionQueueCapacity(0);
+        startServer(instance);
+
+        try (Socket idle = openIdleConnection()) {
+            await(() -> server.getActiveWorkerCount() == 1);
+            assertEquals(errorResult, runQuery(listQuery));
+            assertEquals(1, server.getRejectedConnectionCount());
+        }
+
+        await(() -> runQuery(listQuery).equals(listResult));
+    }
+
+    @Test
+    void testConnectionIsQueuedUntilWorkerIsFree() throws Exception {
+        Server instance = new Server(portNumber);
+        instance.setWorkerCount(1);
+        instance.setConnectionQueueCapacity(1);
+        startServer(instance);
+
+        Socket idle = openIdleConnection();
+        await(() -> server.getActiveWorkerCount() == 1);
+
+        try (Socket queued = new Socket(hostName, portNumber)) {
+            await(() -> server.getQueuedConnectionCount() == 1);
+            assertEquals(errorResult, runQuery(listQuery));
+            assertEquals(1, server.getRejectedConnectionCount());
+
+            DataOutputStream output = new DataOutputStream(queued.getOutputStream());
+            output.writeInt(QueryType.listQuery.getValue());
+            output.write(Paths.get("src", "test", "resources", "1", "4").toString().getBytes());
+            queued.shutdownOutput();
+            idle.close();
+
+            DataInputStream input = new DataInputStream(queued.getInputStream());
+            assertEquals(1, input.readInt());
+        }
+        assertEquals(0, server.getQueuedConnectionCount());
+    }
+
+    @Test
+    void testConnectionsPerAddressAreLimited() throws Exception {
+        checkConnectionsPerAddressAreLimited(Server.ConnectionMode.THREAD_PER_CONNECTION);
+    }
+
+    @Test
+    void testConnectionsPerAddressAreLimitedInSelectorMode() throws Exception {
+        checkConnectionsPerAddressAreLimited(Server.ConnectionMode.SELECTOR);
+    }
+
+    private void checkConnectionsPerAddressAreLimited(Server.ConnectionMode mode) throws Exception {
+        Server instance = new Server(portNumber);
+        instance.setConnectionMode(mode);
+        instance.setMaxConnectionsPerAddress(1);
+        startServer(instance);
+
+        try (Socket idle = openIdleConnection()) {
+            await(() -> runQuery(listQuery).equals(errorResult));
+            assertEquals(1, server.getRejectedConnectionCount());
+        }
+
+        await(() -> runQuery(listQuery).equals(listResult));
+    }
+}
@@ -0,0 +1,78 @@
+package me.eranik.ftp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionTest {
+
+    private CompressionCodec codec = new DeflateCodec();
+
+    private byte[] encode(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Compression.Encoder encoder = new Compression.Encoder(new ByteArrayInputStream(data), codec, "test")) {
+            for (ByteBuffer block = encoder.nextBlock(); block != null; block = encoder.nextBlock()) {
+                bytes.write(block.array(), block.position(), block.remaining());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] decode(byte[] encoded) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(encoded));
+        Compression.Statistics statistics = Compression.decode(input, codec, bytes);
+        assertEquals(-1, input.read());
+        assertEquals(encoded.length, statistics.encodedBytes);
+        assertEquals(bytes.size(), statistics.rawBytes);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void testTextIsCompressed() throws IOException {
+        byte[] content = Files.readAllBytes(Paths.get("src", "test", "resources", "hello.txt"));
+        byte[] encoded = encode(content);
+
+        assertTrue(encoded.length < content.length / 2);
+        assertArrayEquals(content, decode(encoded));
+    }
+
+    @Test
+    void testRandomDataIsStored() throws IOException {
+        byte[] content = new byte[3 * Compression.BLOCK_SIZE + 17];
+        new Random(42).nextBytes(content);
+        byte[] encoded = encode(content);
+
+        assertEquals(content.length + 5 * 2 * Integer.BYTES, encoded.length);
+        assertArrayEquals(content, decode(encoded));
+    }
+
+    @Test
+    void testEmptyData() throws IOException {
+        assertArrayEquals(new byte[2 * Integer.BYTES], encode(new byte[0]));
+        assertArrayEquals(new byte[0], decode(encode(new byte[0])));
+    }
+
+    @Test
+    void testCorruptedBlock() throws IOException {
+        byte[] encoded = encode(new byte[1000]);
+        encoded[2 * Integer.BYTES] ^= 0x55;
+        assertThrows(IOException.class, () -> decode(encoded));
+    }
+
+    @Test
+    void testNegotiation() {
+        assertSame(codec, Compression.negotiate(Collections.singletonMap("deflate", codec), "lz4,deflate"));
+        assertNull(Compression.negotiate(Collections.singletonMap("deflate", codec), "lz4"));
+        assertNull(Compression.negotiate(Collections.singletonMap("deflate", codec), ""));
+        assertTrue(Compression.isCompressed(new File("archive.ZIP")));
+        assertFalse(Compression.isCompressed(new File("hello.txt")));
+    }
+}
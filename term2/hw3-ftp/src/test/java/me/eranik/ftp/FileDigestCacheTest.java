@@ -0,0 +1,114 @@
+package me.eranik.ftp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileDigestCacheTest {
+
+    private File file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = Files.createTempFile("digest", ".txt").toFile();
+        Files.write(file.toPath(), "hello".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void takeDown() {
+        assertTrue(file.delete());
+    }
+
+    @Test
+    void testDigestMatchesMessageDigest() throws IOException {
+        byte[] expected = FileDigestCache.newMessageDigest().digest("hello".getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals(expected, new FileDigestCache(1).getDigest(file));
+        assertEquals(FileDigestCache.DIGEST_LENGTH, expected.length);
+    }
+
+    @Test
+    void testHitAfterMiss() throws IOException {
+        FileDigestCache cache = new FileDigestCache(1);
+
+        byte[] digest = cache.getDigest(file);
+        assertArrayEquals(digest, cache.getDigest(file));
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    void testModifiedFileIsDigestedAgain() throws IOException {
+        FileDigestCache cache = new FileDigestCache(1);
+
+        byte[] digest = cache.getDigest(file);
+        Files.write(file.toPath(), "hello, world".getBytes(StandardCharsets.UTF_8));
+
+        assertFalse(Arrays.equals(digest, cache.getDigest(file)));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    void testLeastRecentlyUsedDigestIsEvicted() throws IOException {
+        File other = Files.createTempFile("digest", ".txt").toFile();
+        try {
+            FileDigestCache cache = new FileDigestCache(1);
+            cache.getDigest(file);
+            cache.getDigest(other);
+            cache.getDigest(file);
+
+            assertEquals(3, cache.getMissCount());
+            assertEquals(0, cache.getHitCount());
+        } finally {
+            assertTrue(other.delete());
+        }
+    }
+
+    @Test
+    void testCachedDigestIsNotComputed() throws IOException {
+        FileDigestCache cache = new FileDigestCache(1);
+        assertNull(cache.getCachedDigest(file));
+
+        byte[] digest = cache.getDigest(file);
+        assertArrayEquals(digest, cache.getCachedDigest(file));
+
+        Files.write(file.toPath(), "hello, world".getBytes(StandardCharsets.UTF_8));
+        assertNull(cache.getCachedDigest(file));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void testDigestOfReadBytesIsCached() throws IOException {
+        FileDigestCache cache = new FileDigestCache(1);
+        FileDigestCache.Digester digester = cache.startDigest(file);
+        ByteBuffer bytes = ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8));
+        digester.update(bytes);
+        assertEquals(5, bytes.remaining());
+
+        byte[] digest = digester.finish();
+        assertArrayEquals(FileDigestCache.computeDigest(file), digest);
+        assertArrayEquals(digest, cache.getCachedDigest(file));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void testDigestOfChangedFileIsNotCached() throws IOException {
+        FileDigestCache cache = new FileDigestCache(1);
+        FileDigestCache.Digester digester = cache.startDigest(file);
+        digester.update(ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)));
+        Files.write(file.toPath(), "hello, world".getBytes(StandardCharsets.UTF_8));
+
+        digester.finish();
+        assertNull(cache.getCachedDigest(file));
+    }
+}
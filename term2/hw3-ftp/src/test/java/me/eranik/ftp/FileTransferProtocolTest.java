@@ -0,0 +1,149 @@
+package me.eranik.ftp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileTransferProtocolTest {
+
+    private File file = Paths.get("src", "test", "resources", "hello.txt").toFile();
+
+    private byte[] writeFile(boolean channelBacked, long position, long count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        FileTransferProtocol.ResponseWriter writer = new FileTransferProtocol.StreamResponseWriter(output,
+                channelBacked ? Channels.newChannel(bytes) : null, false);
+
+        writer.getDataOutput().writeLong(count);
+        writer.writeFile(file, position, count);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private byte[] writeRegion(boolean channelBacked, long position, long count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        FileTransferProtocol.ResponseWriter writer = new FileTransferProtocol.StreamResponseWriter(output,
+                channelBacked ? Channels.newChannel(bytes) : null, false);
+        FileTransferProtocol protocol = new FileTransferProtocol(null, Collections.emptyMap(),
+                new FileDigestCache(1), new MappedFileCache(1 << 20), new MetricsRegistry());
+
+        for (int i = 0; i < MappedFileCache.MIN_HITS; i++) {
+            bytes.reset();
+            protocol.processGetRangeQuery(writer, file.getPath(), position, count);
+            output.flush();
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void testMappedRegionMatchesTransfer() throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        byte[] response = writeRegion(true, 100, 5000);
+
+        assertEquals(16 + 5000, response.length);
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 5100), Arrays.copyOfRange(response, 16, response.length));
+        assertArrayEquals(response, writeRegion(false, 100, 5000));
+    }
+
+    @Test
+    void testTransferMatchesCopy() throws IOException {
+        long size = file.length();
+        assertArrayEquals(writeFile(false, 0, size), writeFile(true, 0, size));
+    }
+
+    @Test
+    void testTransferOfRegion() throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        byte[] response = writeFile(true, 100, 5000);
+
+        assertEquals(8 + 5000, response.length);
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 5100), Arrays.copyOfRange(response, 8, response.length));
+        assertArrayEquals(response, writeFile(false, 100, 5000));
+    }
+
+    @Test
+    void testTransferFailsAtEndOfFile() {
+        long size = file.length();
+        assertThrows(FileTransferProtocol.FileTruncatedException.class, () -> writeFile(true, size - 10, 1000));
+        assertThrows(FileTransferProtocol.FileTruncatedException.class, () -> writeFile(false, size - 10, 1000));
+    }
+
+    @Test
+    void testDigestFollowsContentUntilCached() throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        byte[] digest = FileDigestCache.computeDigest(file);
+        FileTransferProtocol protocol = new FileTransferProtocol(null, Collections.emptyMap(),
+                new FileDigestCache(1), null, new MetricsRegistry());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        FileTransferProtocol.ResponseWriter writer = new FileTransferProtocol.StreamResponseWriter(output,
+                Channels.newChannel(bytes), true);
+
+        protocol.processGetQuery(writer, file.getPath());
+        output.flush();
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(content.length, input.readLong());
+        assertFalse(input.readBoolean());
+        byte[] body = new byte[content.length];
+        input.readFully(body);
+        assertArrayEquals(content, body);
+        byte[] trailer = new byte[FileDigestCache.DIGEST_LENGTH];
+        input.readFully(trailer);
+        assertArrayEquals(digest, trailer);
+        assertEquals(-1, input.read());
+
+        bytes.reset();
+        protocol.processGetQuery(writer, file.getPath());
+        output.flush();
+        input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(content.length, input.readLong());
+        assertTrue(input.readBoolean());
+        byte[] header = new byte[FileDigestCache.DIGEST_LENGTH];
+        input.readFully(header);
+        assertArrayEquals(digest, header);
+        input.readFully(body);
+        assertArrayEquals(content, body);
+        assertEquals(-1, input.read());
+    }
+
+    @Test
+    void testDigestedFileMatchesCopy() throws IOException {
+        long size = file.length();
+        FileDigestCache cache = new FileDigestCache(1);
+        byte[][] responses = new byte[2][];
+        for (int i = 0; i < responses.length; i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            FileTransferProtocol.ResponseWriter writer = new FileTransferProtocol.StreamResponseWriter(output,
+                    i == 0 ? Channels.newChannel(bytes) : null, true);
+            writer.writeDigestedFile(file, size, cache.startDigest(file));
+            output.flush();
+            responses[i] = bytes.toByteArray();
+        }
+
+        byte[] content = Files.readAllBytes(file.toPath());
+        assertEquals(content.length + FileDigestCache.DIGEST_LENGTH, responses[0].length);
+        assertArrayEquals(content, Arrays.copyOf(responses[0], content.length));
+        assertArrayEquals(FileDigestCache.computeDigest(file),
+                Arrays.copyOfRange(responses[0], content.length, responses[0].length));
+        assertArrayEquals(responses[0], responses[1]);
+    }
+
+    @Test
+    void testDigestedFileFailsAtEndOfFile() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FileTransferProtocol.ResponseWriter writer = new FileTransferProtocol.StreamResponseWriter(
+                new DataOutputStream(bytes), Channels.newChannel(bytes), true);
+        assertThrows(FileTransferProtocol.FileTruncatedException.class,
+                () -> writer.writeDigestedFile(file, file.length() + 10, new FileDigestCache(1).startDigest(file)));
+    }
+}
@@ -7,7 +7,9 @@ import org.junit.jupiter.api.Test;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -15,7 +17,7 @@ class InteractionTest {
 
     private static String hostName = "localhost";
     private static int portNumber = 12345;
-    private Server server;
+    volatile Server server;
     private Thread serverThread;
 
     private String first = Paths.get("src", "test", "resources", "1").toString() + " true\n";
@@ -33,8 +35,9 @@ class InteractionTest {
     @BeforeEach
     void setUp() throws InterruptedException {
         serverThread = new Thread(() -> {
-            server = new Server(portNumber);
-            server.runServer();
+            Server instance = createServer(portNumber);
+            server = instance;
+            instance.runServer();
         });
         serverThread.setDaemon(true);
         serverThread.start();
@@ -44,6 +47,14 @@ class InteractionTest {
         }
     }
 
+    Server createServer(int portNumber) {
+        return new Server(portNumber);
+    }
+
+    Client createClient(InputStream input, OutputStream output) {
+        return new Client(hostName, portNumber, input, output);
+    }
+
     @AfterEach
     void takeDown() throws InterruptedException {
         while (server.isRunning()) {
@@ -59,7 +70,7 @@ class InteractionTest {
         ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
         ByteArrayOutputStream output = new ByteArrayOutputStream();
 
-        Client client = new Client(hostName, portNumber, input, output);
+        Client client = createClient(input, output);
         client.runClient();
 
         String result = "9\n" + first + second + third + html + py + fourth + java + cpp + txt;
@@ -74,7 +85,7 @@ class InteractionTest {
         ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
         ByteArrayOutputStream output = new ByteArrayOutputStream();
 
-        Client client = new Client(hostName, portNumber, input, output);
+        Client client = createClient(input, output);
         client.runClient();
 
         String result = "7\n" + second + third + html + py + fourth + java + cpp;
@@ -89,7 +100,7 @@ class InteractionTest {
         ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
         ByteArrayOutputStream output = new ByteArrayOutputStream();
 
-        Client client = new Client(hostName, portNumber, input, output);
+        Client client = createClient(input, output);
         client.runClient();
 
         String result = "3\n" + third + html + py;
@@ -104,7 +115,7 @@ class InteractionTest {
         ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
         ByteArrayOutputStream output = new ByteArrayOutputStream();
 
-        Client client = new Client(hostName, portNumber, input, output);
+        Client client = createClient(input, output);
         client.runClient();
 
         String result = "1\n" + html;
@@ -119,7 +130,7 @@ class InteractionTest {
         ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
         ByteArrayOutputStream output = new ByteArrayOutputStream();
 
-        Client client = new Client(hostName, portNumber, input, output);
+        Client client = createClient(input, output);
         client.runClient();
 
         String result = "1\n" + java;
@@ -127,6 +138,52 @@ class InteractionTest {
         assertEquals(result.trim(), output.toString().trim());
     }
 
+    @Test
+    void testWalkFunctionPageByPage() {
+        String request = "walk " + Paths.get("src", "test", "resources").toString();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.setListingPageSize(2);
+        client.runClient();
+
+        String result = first + second + third + html + py + fourth + java + cpp + txt;
+
+        assertEquals(result.trim(), output.toString().trim());
+    }
+
+    @Test
+    void testWalkFunctionWithDepth() {
+        String request = "walk " + Paths.get("src", "test", "resources").toString();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.setListingDepth(2);
+        client.setListingPageSize(3);
+        client.runClient();
+
+        String result = first + second + fourth + cpp + txt;
+
+        assertEquals(result.trim(), output.toString().trim());
+    }
+
+    @Test
+    void testWalkFunctionFileDoesNotExist() {
+        String request = "walk " + Paths.get("src", "test", "resources", "abracadabra").toString();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.runClient();
+
+        assertEquals("", output.toString().trim());
+    }
+
     @Test
     void testListFunctionFileDoesNotExist() {
         String request = "list " + Paths.get("src", "test", "resources", "abracadabra").toString();
@@ -134,7 +191,7 @@ class InteractionTest {
         ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
         ByteArrayOutputStream output = new ByteArrayOutputStream();
 
-        Client client = new Client(hostName, portNumber, input, output);
+        Client client = createClient(input, output);
         client.runClient();
 
         assertEquals("0", output.toString().trim());
@@ -147,7 +204,7 @@ class InteractionTest {
         ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
         ByteArrayOutputStream output = new ByteArrayOutputStream();
 
-        Client client = new Client(hostName, portNumber, input, output);
+        Client client = createClient(input, output);
         client.runClient();
 
         assertEquals("File was successfully downloaded to the current directory.", output.toString().trim());
@@ -167,7 +224,7 @@ class InteractionTest {
         ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
         ByteArrayOutputStream output = new ByteArrayOutputStream();
 
-        Client client = new Client(hostName, portNumber, input, output);
+        Client client = createClient(input, output);
         client.runClient();
 
         assertEquals("File was successfully downloaded to the current directory.", output.toString().trim());
@@ -180,6 +237,315 @@ class InteractionTest {
         assertTrue(new File("hello.txt").delete());
     }
 
+    @Test
+    void testParallelGetFunction() throws IOException {
+        File source = new File(Paths.get("src", "test", "resources", "hello.txt").toString());
+        String request = "get " + source.getPath() + "\n"
+                + "get " + Paths.get("src", "test", "resources", "abracadabra.txt").toString();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.setParallelism(4);
+        client.setChunkSize(10000);
+        client.runClient();
+
+        assertEquals("File was successfully downloaded to the current directory.\n" +
+                "Specified file was not found on server.\n" +
+                "Make sure that you have entered correct file name and that it is not a directory",
+                output.toString().trim());
+        assertTrue(FileUtils.contentEquals(new File("hello.txt"), source));
+        assertTrue(new File("hello.txt").delete());
+        assertFalse(new File("abracadabra.txt").exists());
+    }
+
+    @Test
+    void testParallelGetFunctionLocalFileCannotBeReplaced() throws IOException {
+        File source = new File(Paths.get("src", "test", "resources", "hello.txt").toString());
+        File directory = new File("hello.txt");
+        assertTrue(directory.mkdir());
+        assertTrue(new File(directory, "child").createNewFile());
+
+        String request = "get " + source.getPath();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.setParallelism(4);
+        client.setChunkSize(10000);
+        client.runClient();
+
+        assertEquals("Downloaded file cannot be saved to the current directory.\n" +
+                "Make sure that you have permissions to write to it.", output.toString().trim());
+        assertFalse(new File("hello.txt.part").exists());
+        assertTrue(directory.isDirectory());
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    void testResumeFunctionPartialFile() throws IOException {
+        File source = new File(Paths.get("src", "test", "resources", "hello.txt").toString());
+        byte[] content = Files.readAllBytes(source.toPath());
+        Files.write(Paths.get("hello.txt"), Arrays.copyOf(content, 10000));
+
+        String request = "resume " + source.getPath();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.runClient();
+
+        assertEquals("File was successfully downloaded to the current directory.", output.toString().trim());
+        assertTrue(FileUtils.contentEquals(new File("hello.txt"), source));
+        assertTrue(new File("hello.txt").delete());
+    }
+
+    @Test
+    void testResumeFunctionNoLocalFile() throws IOException {
+        File source = new File(Paths.get("src", "test", "resources", "1", "hello.cpp").toString());
+        String request = "resume " + source.getPath();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        assertFalse(new File("hello.cpp").exists());
+
+        Client client = createClient(input, output);
+        client.runClient();
+
+        assertEquals("File was successfully downloaded to the current directory.", output.toString().trim());
+        assertTrue(FileUtils.contentEquals(new File("hello.cpp"), source));
+        assertTrue(new File("hello.cpp").delete());
+    }
+
+    @Test
+    void testResumeFunctionLocalFileIsLonger() throws IOException {
+        File source = new File(Paths.get("src", "test", "resources", "1", "hello.cpp").toString());
+        byte[] content = new byte[(int) source.length() + 1];
+        Files.write(Paths.get("hello.cpp"), content);
+
+        String request = "resume " + source.getPath();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.runClient();
+
+        assertEquals("Local file is longer than the file on server, so downloading cannot be resumed.\n" +
+                "Remove local file and download it once more.", output.toString().trim());
+        assertEquals(content.length, new File("hello.cpp").length());
+        assertTrue(new File("hello.cpp").delete());
+    }
+
+    @Test
+    void testGetFunctionLocalFileIsUpToDate() throws IOException {
+        File source = new File(Paths.get("src", "test", "resources", "hello.txt").toString());
+        Files.copy(source.toPath(), Paths.get("hello.txt"));
+        long modified = new File("hello.txt").lastModified();
+
+        String request = "get " + source.getPath();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.runClient();
+
+        assertEquals("Local file is up to date, so it was not downloaded.", output.toString().trim());
+        assertEquals(modified, new File("hello.txt").lastModified());
+        assertTrue(new File("hello.txt").delete());
+    }
+
+    @Test
+    void testGetFunctionLocalFileIsOutdated() throws IOException {
+        File source = new File(Paths.get("src", "test", "resources", "hello.txt").toString());
+        byte[] content = Files.readAllBytes(source.toPath());
+        content[0]++;
+        Files.write(Paths.get("hello.txt"), content);
+
+        String request = "get " + source.getPath();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.runClient();
+
+        assertEquals("File was successfully downloaded to the current directory.", output.toString().trim());
+        assertTrue(FileUtils.contentEquals(new File("hello.txt"), source));
+        assertTrue(new File("hello.txt").delete());
+    }
+
+    @Test
+    void testBatchGetFunction() throws IOException {
+        File cpp = new File(Paths.get("src", "test", "resources", "1", "hello.cpp").toString());
+        File java = new File(Paths.get("src", "test", "resources", "1", "4", "hello.java").toString());
+        String request = "mget " + Paths.get("src", "test", "resources", "1", "*.cpp").toString() + " "
+                + java.getPath() + " " + Paths.get("src", "test", "resources", "abracadabra.txt").toString();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.runClient();
+
+        assertEquals("2 files were successfully downloaded to the current directory.", output.toString().trim());
+        assertTrue(FileUtils.contentEquals(new File("hello.cpp"), cpp));
+        assertTrue(FileUtils.contentEquals(new File("hello.java"), java));
+        assertTrue(new File("hello.cpp").delete());
+        assertTrue(new File("hello.java").delete());
+    }
+
+    @Test
+    void testBatchGetFunctionRecursiveGlob() throws IOException {
+        String request = "mget " + Paths.get("src", "test", "resources", "1", "2").toString() + File.separator + "**"
+                + "\n" + "list " + Paths.get("src", "test", "resources", "1", "4").toString();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.runClient();
+
+        assertEquals("2 files were successfully downloaded to the current directory.\n1\n" + java,
+                output.toString().trim() + "\n");
+        assertTrue(FileUtils.contentEquals(new File("hello.py"),
+                new File(Paths.get("src", "test", "resources", "1", "2", "hello.py").toString())));
+        assertTrue(FileUtils.contentEquals(new File(Paths.get("3", "hello.html").toString()),
+                new File(Paths.get("src", "test", "resources", "1", "2", "3", "hello.html").toString())));
+        assertTrue(new File("hello.py").delete());
+        FileUtils.deleteDirectory(new File("3"));
+    }
+
+    @Test
+    void testBatchGetFunctionManyFiles() throws IOException {
+        File directory = Files.createTempDirectory("batch").toFile();
+        int count = 4 * FileTransferProtocol.MAX_BATCH_STEP + 1;
+        try {
+            for (int i = 0; i < count; i++) {
+                Files.write(new File(directory, "batch" + i + ".txt").toPath(),
+                        ("file " + i).getBytes(StandardCharsets.UTF_8));
+            }
+            String request = "mget " + new File(directory, "*.txt").getPath()
+                    + "\n" + "list " + Paths.get("src", "test", "resources", "1", "4").toString();
+
+            ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+            Client client = createClient(input, output);
+            client.runClient();
+
+            assertEquals(count + " files were successfully downloaded to the current directory.\n1\n" + java,
+                    output.toString().trim() + "\n");
+            for (int i = 0; i < count; i++) {
+                File file = new File("batch" + i + ".txt");
+                assertEquals("file " + i, new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+                assertTrue(file.delete());
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    void testBatchGetFunctionNothingMatches() {
+        String request = "mget " + Paths.get("src", "test", "resources", "*.cpp").toString();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.runClient();
+
+        assertEquals("Specified file was not found on server.\n"
+                + "Make sure that you have entered correct file name and that it is not a directory",
+                output.toString().trim());
+    }
+
+    @Test
+    void testPipelinedQueries() throws IOException {
+        String request = "list " + Paths.get("src", "test", "resources", "1", "2", "3").toString() + "\n"
+                + "get " + Paths.get("src", "test", "resources", "1", "hello.cpp").toString() + "\n"
+                + "get " + Paths.get("src", "test", "resources", "abracadabra.txt").toString() + "\n"
+                + "list " + Paths.get("src", "test", "resources", "1", "4").toString() + "\n";
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.runClient();
+
+        String result = "1\n" + html + "\n"
+                + "File was successfully downloaded to the current directory.\n"
+                + "Specified file was not found on server.\n"
+                + "Make sure that you have entered correct file name and that it is not a directory\n"
+                + "1\n" + java;
+
+        assertEquals(result.trim(), output.toString().trim());
+
+        assertTrue(FileUtils.contentEquals(new File("hello.cpp"),
+                new File(Paths.get("src", "test", "resources", "1", "hello.cpp").toString())));
+        assertTrue(new File("hello.cpp").delete());
+    }
+
+    @Test
+    void testCompressedListFunction() {
+        String request = "zlist " + Paths.get("src", "test", "resources").toString();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.runClient();
+
+        String result = "9\n" + first + second + third + html + py + fourth + java + cpp + txt;
+
+        assertTrue(output.toString().startsWith(result));
+        assertTrue(output.toString().substring(result.length()).trim().startsWith("Decompressed with deflate: "));
+    }
+
+    @Test
+    void testCompressedGetFunction() throws IOException {
+        File source = new File(Paths.get("src", "test", "resources", "hello.txt").toString());
+        String request = "zget " + source.getPath() + "\n"
+                + "zget " + Paths.get("src", "test", "resources", "abracadabra.txt").toString();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.runClient();
+
+        String[] lines = output.toString().trim().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("Decompressed with deflate: " + source.length() + " bytes sent as "));
+        assertEquals("File was successfully downloaded to the current directory.", lines[1].trim());
+        assertEquals("Specified file was not found on server.", lines[2].trim());
+        assertTrue(FileUtils.contentEquals(new File("hello.txt"), source));
+        assertTrue(new File("hello.txt").delete());
+    }
+
+    @Test
+    void testCompressedGetFunctionWithoutCommonCodec() throws IOException {
+        File source = new File(Paths.get("src", "test", "resources", "1", "hello.cpp").toString());
+        String request = "zget " + source.getPath();
+
+        ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Client client = createClient(input, output);
+        client.setCompressionCodecs();
+        client.runClient();
+
+        assertEquals("File was successfully downloaded to the current directory.", output.toString().trim());
+        assertTrue(FileUtils.contentEquals(new File("hello.cpp"), source));
+        assertTrue(new File("hello.cpp").delete());
+    }
+
     @Test
     void testGetFunctionFileNotExists() {
         String request = "get " + Paths.get("src", "test", "resources", "abracadabra.txt").toString();
@@ -187,7 +553,7 @@ class InteractionTest {
         ByteArrayInputStream input = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
         ByteArrayOutputStream output = new ByteArrayOutputStream();
 
-        Client client = new Client(hostName, portNumber, input, output);
+        Client client = createClient(input, output);
 
         assertTrue(!new File("abracadabra.txt").exists());
 
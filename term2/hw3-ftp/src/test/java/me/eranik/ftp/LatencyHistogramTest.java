@@ -0,0 +1,53 @@
+package me.eranik.ftp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testValueIsNotAboveUpperBoundOfItsBucket() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(index), "Value " + value);
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.upperBoundOf(index - 1), "Value " + value);
+            }
+        }
+    }
+
+    @Test
+    void testBucketsAreNarrow() {
+        for (int index = 9; LatencyHistogram.upperBoundOf(index) < Long.MAX_VALUE; index++) {
+            long lower = LatencyHistogram.upperBoundOf(index - 1) + 1;
+            long upper = LatencyHistogram.upperBoundOf(index);
+            assertTrue(upper - lower < lower / 7, "Bucket " + index);
+        }
+    }
+
+    @Test
+    void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500, histogram.getMean(), 1e-6);
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_000, histogram.getPercentile(0.5), 500_000 / 8);
+        assertEquals(990_000, histogram.getPercentile(0.99), 990_000 / 8);
+        assertEquals(1_000_000, histogram.getPercentile(1));
+    }
+
+    @Test
+    void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+}
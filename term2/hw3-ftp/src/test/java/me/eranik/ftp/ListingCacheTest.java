@@ -0,0 +1,125 @@
+package me.eranik.ftp;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.WatchKey;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ListingCacheTest {
+
+    private File root;
+    private ListingCache cache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Files.createTempDirectory("listing").toFile();
+        assertTrue(new File(root, "a").mkdir());
+        assertTrue(new File(root, "a" + File.separator + "b.txt").createNewFile());
+        assertTrue(new File(root, "c.txt").createNewFile());
+    }
+
+    @AfterEach
+    void takeDown() throws IOException {
+        if (cache != null) {
+            cache.close();
+        }
+        FileUtils.deleteDirectory(root);
+    }
+
+    private String listing(String path) {
+        return new String(cache.get(path).bytes);
+    }
+
+    @Test
+    void testHitAfterMiss() throws IOException {
+        cache = new ListingCache(1 << 20);
+
+        String expected = listing(root.getPath());
+        assertEquals(3, cache.get(root.getPath()).size);
+        assertEquals(expected, listing(root.getPath()));
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    void testInvalidationOnCreate() throws IOException, InterruptedException {
+        cache = new ListingCache(1 << 20);
+        listing(root.getPath());
+
+        assertTrue(new File(root, "a" + File.separator + "d.txt").createNewFile());
+        for (int i = 0; i < 100 && cache.getInvalidationCount() == 0; i++) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(1, cache.getInvalidationCount());
+        assertTrue(listing(root.getPath()).contains("d.txt"));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    void testEviction() throws IOException {
+        StringBuilder list = new StringBuilder();
+        FileTransferProtocol.getDirectoryTree(root, list);
+        cache = new ListingCache(list.length() + 2 * root.getPath().length() + ListingCache.ENTRY_OVERHEAD);
+
+        String first = new File(root, "a").getPath();
+        listing(first);
+        listing(root.getPath());
+        listing(root.getPath());
+        listing(first);
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertTrue(cache.getEvictionCount() >= 1);
+    }
+
+    @Test
+    void testWatchKeysOfRejectedListingAreCancelled() throws IOException {
+        cache = new ListingCache(0);
+
+        ListingCache.Listing rejected = cache.get(root.getPath());
+
+        assertEquals(2, rejected.keys.size());
+        for (WatchKey key : rejected.keys) {
+            assertFalse(key.isValid());
+        }
+    }
+
+    @Test
+    void testSharedWatchKeysAreKeptForCachedListing() throws IOException {
+        File child = new File(root, "a");
+        StringBuilder list = new StringBuilder();
+        FileTransferProtocol.getDirectoryTree(child, list);
+        cache = new ListingCache(list.length() + 2 * child.getPath().length() + ListingCache.ENTRY_OVERHEAD);
+
+        ListingCache.Listing cached = cache.get(child.getPath());
+        ListingCache.Listing rejected = cache.get(root.getPath());
+
+        assertSame(cached, cache.get(child.getPath()));
+        assertTrue(cached.keys.get(0).isValid());
+        for (WatchKey key : rejected.keys) {
+            assertEquals(cached.keys.contains(key), key.isValid());
+        }
+    }
+
+    @Test
+    void testListingOfMissingDirectoryIsNotCached() throws IOException {
+        cache = new ListingCache(1 << 20);
+        File missing = new File(root, "d");
+
+        assertEquals(0, cache.get(missing.getPath()).size);
+        assertTrue(missing.mkdir());
+        assertTrue(new File(missing, "e.txt").createNewFile());
+
+        assertEquals(1, cache.get(missing.getPath()).size);
+        assertEquals(0, cache.getHitCount());
+    }
+}
@@ -0,0 +1,122 @@
+package me.eranik.ftp;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFileCacheTest {
+
+    private File root;
+    private File first;
+    private File second;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Files.createTempDirectory("mapped").toFile();
+        first = new File(root, "first.bin");
+        second = new File(root, "second.bin");
+        Files.write(first.toPath(), new byte[100]);
+        Files.write(second.toPath(), new byte[100]);
+    }
+
+    @AfterEach
+    void takeDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    private ByteBuffer request(MappedFileCache cache, File file, int times) throws IOException {
+        ByteBuffer region = null;
+        for (int i = 0; i < times; i++) {
+            region = cache.get(file, file.length());
+        }
+        return region;
+    }
+
+    @Test
+    void testFileIsMappedAfterSeveralRequests() throws IOException {
+        MappedFileCache cache = new MappedFileCache(1000);
+
+        assertNull(request(cache, first, MappedFileCache.MIN_HITS - 1));
+        ByteBuffer region = request(cache, first, 1);
+        assertNotNull(region);
+        assertEquals(100, region.remaining());
+
+        assertEquals(100, cache.getMappedBytes());
+        assertEquals(MappedFileCache.MIN_HITS - 1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    void testHotterFileReplacesColderOne() throws IOException {
+        MappedFileCache cache = new MappedFileCache(150);
+
+        assertNotNull(request(cache, first, MappedFileCache.MIN_HITS));
+        assertNull(request(cache, second, MappedFileCache.MIN_HITS));
+        assertNotNull(request(cache, second, 1));
+        assertNull(request(cache, first, 1));
+
+        assertEquals(100, cache.getMappedBytes());
+    }
+
+    @Test
+    void testModifiedFileIsMappedAgain() throws IOException {
+        MappedFileCache cache = new MappedFileCache(1000);
+
+        assertNotNull(request(cache, first, MappedFileCache.MIN_HITS));
+        Files.write(first.toPath(), new byte[50]);
+        assertTrue(first.setLastModified(first.lastModified() + 1000));
+
+        assertNull(request(cache, first, 1));
+        assertEquals(0, cache.getMappedBytes());
+        assertEquals(50, request(cache, first, 1).remaining());
+    }
+
+    @Test
+    void testFileLargerThanCapacityIsNotMapped() throws IOException {
+        MappedFileCache cache = new MappedFileCache(50);
+
+        assertNull(request(cache, first, 2 * MappedFileCache.MIN_HITS));
+        assertEquals(0, cache.getMappedBytes());
+    }
+
+    @Test
+    void testConcurrentRequestsMapFileOnce() throws Exception {
+        MappedFileCache cache = new MappedFileCache(1000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                File file = i % 2 == 0 ? first : second;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 100; j++) {
+                        ByteBuffer region = cache.get(file, file.length());
+                        assertTrue(region == null || region.remaining() == 100);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(200, cache.getMappedBytes());
+        assertEquals(800, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.getMissCount() >= MappedFileCache.MIN_HITS - 1);
+    }
+}
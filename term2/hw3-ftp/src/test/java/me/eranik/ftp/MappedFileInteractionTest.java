@@ -0,0 +1,42 @@
+package me.eranik.ftp;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFileInteractionTest extends SelectorInteractionTest {
+
+    @Override
+    Server createServer(int portNumber) {
+        Server server = super.createServer(portNumber);
+        server.setMappedFileCacheCapacity(1 << 20);
+        return server;
+    }
+
+    @Test
+    void testHotFileIsSentFromMapping() throws IOException {
+        File source = new File(Paths.get("src", "test", "resources", "hello.txt").toString());
+        // the first request is read from disk to be digested, so mapping counts requests from the second one
+        for (int i = 0; i < 4; i++) {
+            ByteArrayInputStream input = new ByteArrayInputStream(("get " + source.getPath())
+                    .getBytes(StandardCharsets.UTF_8));
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            createClient(input, output).runClient();
+
+            assertEquals("File was successfully downloaded to the current directory.", output.toString().trim());
+            assertTrue(FileUtils.contentEquals(new File("hello.txt"), source));
+            assertTrue(new File("hello.txt").delete());
+        }
+
+        assertEquals(1, server.getMappedFileCacheMissCount());
+        assertEquals(2, server.getMappedFileCacheHitCount());
+    }
+}
@@ -0,0 +1,108 @@
+package me.eranik.ftp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    private static String hostName = "localhost";
+    private static int portNumber = 12345;
+    private volatile Server server;
+    private Thread serverThread;
+
+    private File source = Paths.get("src", "test", "resources", "hello.txt").toFile();
+    private String listQuery = "list " + Paths.get("src", "test", "resources", "1", "4").toString();
+    private String getResult = "File was successfully downloaded to the current directory.";
+
+    private void startServer(Server instance) throws InterruptedException {
+        serverThread = new Thread(() -> {
+            server = instance;
+            instance.runServer();
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        while (server == null || !server.isRunning()) {
+            Thread.sleep(100);
+        }
+    }
+
+    @AfterEach
+    void takeDown() throws InterruptedException {
+        while (server.isRunning()) {
+            serverThread.interrupt();
+            Thread.sleep(100);
+        }
+        new File(source.getName()).delete();
+    }
+
+    private String runQuery(String query) {
+        ByteArrayInputStream input = new ByteArrayInputStream(query.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new Client(hostName, portNumber, input, output).runClient();
+        return output.toString().trim();
+    }
+
+    @Test
+    void testQueriesAreCounted() throws Exception {
+        checkQueriesAreCounted(Server.ConnectionMode.THREAD_PER_CONNECTION);
+    }
+
+    @Test
+    void testQueriesAreCountedInSelectorMode() throws Exception {
+        checkQueriesAreCounted(Server.ConnectionMode.SELECTOR);
+    }
+
+    private void checkQueriesAreCounted(Server.ConnectionMode mode) throws Exception {
+        Server instance = new Server(portNumber);
+        instance.setConnectionMode(mode);
+        startServer(instance);
+
+        runQuery(listQuery);
+        runQuery(listQuery);
+        assertEquals(getResult, runQuery("get " + source.getPath()));
+        ServerMetricsMXBean metrics = server.getMetrics();
+        for (int i = 0; i < 50 && metrics.getActiveConnectionCount() > 0; i++) {
+            Thread.sleep(100);
+        }
+
+        Map<String, Long> queries = metrics.getQueryCounts();
+        assertEquals(2, (long) queries.get(QueryType.listQuery.name()));
+        assertEquals(1, (long) queries.get(QueryType.getQuery.name()));
+        assertEquals(0, (long) queries.get("unknown"));
+        assertEquals(3, metrics.getAcceptedConnectionCount());
+        assertEquals(0, metrics.getActiveConnectionCount());
+        assertTrue(metrics.getBytesSent() > source.length());
+
+        Map<String, ServerMetricsMXBean.Latency> latencies = metrics.getLatencies();
+        assertEquals(3, latencies.get("accept").getCount());
+        assertEquals(3, latencies.get("parse").getCount());
+        assertEquals(2, latencies.get("list walk").getCount());
+        assertEquals(1, latencies.get("file stream").getCount());
+        assertTrue(metrics.dump().contains("file stream"));
+    }
+
+    @Test
+    void testMetricsAreRegisteredInJmx() throws Exception {
+        startServer(new Server(portNumber));
+        runQuery(listQuery);
+
+        ObjectName name = new ObjectName("me.eranik.ftp:type=Server,port=" + portNumber);
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "AcceptedConnectionCount"));
+
+        while (server.isRunning()) {
+            serverThread.interrupt();
+            Thread.sleep(100);
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
@@ -0,0 +1,14 @@
+package me.eranik.ftp;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+class OneShotSelectorInteractionTest extends SelectorInteractionTest {
+
+    @Override
+    Client createClient(InputStream input, OutputStream output) {
+        Client client = super.createClient(input, output);
+        client.setPersistentConnection(false);
+        return client;
+    }
+}
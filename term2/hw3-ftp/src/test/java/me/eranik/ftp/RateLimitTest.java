@@ -0,0 +1,106 @@
+package me.eranik.ftp;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimitTest {
+
+    private static String hostName = "localhost";
+    private static int portNumber = 12345;
+    private volatile Server server;
+    private Thread serverThread;
+
+    private File source = Paths.get("src", "test", "resources", "hello.txt").toFile();
+    private String listQuery = "list " + Paths.get("src", "test", "resources", "1", "4").toString();
+    private String listResult = "1\n" + Paths.get("src", "test", "resources", "1", "4", "hello.java") + " false";
+    private String getResult = "File was successfully downloaded to the current directory.";
+
+    private void startServer(Server instance) throws InterruptedException {
+        serverThread = new Thread(() -> {
+            server = instance;
+            instance.runServer();
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        while (server == null || !server.isRunning()) {
+            Thread.sleep(100);
+        }
+    }
+
+    @AfterEach
+    void takeDown() throws InterruptedException {
+        while (server.isRunning()) {
+            serverThread.interrupt();
+            Thread.sleep(100);
+        }
+        new File(source.getName()).delete();
+    }
+
+    private String runQuery(String query) {
+        ByteArrayInputStream input = new ByteArrayInputStream(query.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new Client(hostName, portNumber, input, output).runClient();
+        return output.toString().trim();
+    }
+
+    @Test
+    void testConnectionRateIsLimited() throws Exception {
+        checkConnectionRateIsLimited(Server.ConnectionMode.THREAD_PER_CONNECTION);
+    }
+
+    @Test
+    void testConnectionRateIsLimitedInSelectorMode() throws Exception {
+        checkConnectionRateIsLimited(Server.ConnectionMode.SELECTOR);
+    }
+
+    private void checkConnectionRateIsLimited(Server.ConnectionMode mode) throws Exception {
+        Server instance = new Server(portNumber);
+        instance.setConnectionMode(mode);
+        instance.setConnectionRateLimit(200_000);
+        startServer(instance);
+
+        long start = System.nanoTime();
+        assertEquals(getResult, runQuery("get " + source.getPath()));
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue(FileUtils.contentEquals(new File(source.getName()), source));
+        assertTrue(elapsed >= (source.length() - 20_000) * 1_000_000_000L / 200_000,
+                "File was sent in " + elapsed / 1_000_000 + " ms");
+    }
+
+    @Test
+    void testListIsNotDelayedByDownload() throws Exception {
+        checkListIsNotDelayedByDownload(Server.ConnectionMode.THREAD_PER_CONNECTION);
+    }
+
+    @Test
+    void testListIsNotDelayedByDownloadInSelectorMode() throws Exception {
+        checkListIsNotDelayedByDownload(Server.ConnectionMode.SELECTOR);
+    }
+
+    private void checkListIsNotDelayedByDownload(Server.ConnectionMode mode) throws Exception {
+        Server instance = new Server(portNumber);
+        instance.setConnectionMode(mode);
+        instance.setGlobalRateLimit(50_000);
+        startServer(instance);
+
+        String[] result = new String[1];
+        Thread download = new Thread(() -> result[0] = runQuery("get " + source.getPath()));
+        download.start();
+        Thread.sleep(200);
+
+        assertEquals(listResult, runQuery(listQuery));
+        assertTrue(download.isAlive());
+
+        download.join();
+        assertEquals(getResult, result[0]);
+    }
+}
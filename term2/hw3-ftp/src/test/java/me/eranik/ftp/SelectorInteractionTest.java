@@ -0,0 +1,12 @@
+package me.eranik.ftp;
+
+class SelectorInteractionTest extends InteractionTest {
+
+    @Override
+    Server createServer(int portNumber) {
+        Server server = new Server(portNumber);
+        server.setConnectionMode(Server.ConnectionMode.SELECTOR);
+        server.setEventLoopCount(2);
+        return server;
+    }
+}
@@ -0,0 +1,59 @@
+package me.eranik.ftp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    @Test
+    void testBurstIsAvailableAtOnce() {
+        TokenBucket bucket = new TokenBucket(100_000);
+
+        assertEquals(10_000, bucket.tryTake(1_000_000));
+        assertTrue(bucket.tryTake(1_000) < 1_000);
+    }
+
+    @Test
+    void testChargedBytesAreRepaidBeforeTaking() {
+        TokenBucket bucket = new TokenBucket(100_000);
+        bucket.charge(10_000 + 50_000);
+
+        assertEquals(0, bucket.tryTake(1_000));
+        assertTrue(bucket.getDelayNanos() > 400_000_000L);
+    }
+
+    @Test
+    void testReleasedTokensMayBeTakenAgain() {
+        TokenBucket bucket = new TokenBucket(100_000);
+        assertEquals(10_000, bucket.tryTake(10_000));
+        bucket.charge(-4_000);
+
+        long taken = bucket.tryTake(10_000);
+        assertTrue(taken >= 4_000 && taken < 5_000);
+    }
+
+    @Test
+    void testTakeWaitsForRefill() throws IOException {
+        TokenBucket bucket = new TokenBucket(100_000);
+        long start = System.nanoTime();
+        long taken = 0;
+        while (taken < 30_000) {
+            taken += bucket.take(30_000 - taken);
+        }
+        assertTrue(System.nanoTime() - start >= 150_000_000L);
+    }
+
+    @Test
+    void testThrottleGrantsLessOfTwoBuckets() {
+        TokenBucket global = new TokenBucket(100_000);
+        TokenBucket connection = new TokenBucket(50_000);
+        Throttle throttle = new Throttle(connection, global);
+
+        assertEquals(5_000, throttle.tryAcquire(Throttle.QUANTUM));
+        long left = global.tryTake(10_000);
+        assertTrue(left >= 5_000 && left < 6_000);
+    }
+}
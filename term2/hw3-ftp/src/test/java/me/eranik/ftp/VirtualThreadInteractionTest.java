@@ -0,0 +1,20 @@
+package me.eranik.ftp;
+
+import org.junit.jupiter.api.BeforeAll;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VirtualThreadInteractionTest extends InteractionTest {
+
+    @BeforeAll
+    static void checkSupport() {
+        assumeTrue(Server.ConnectionMode.VIRTUAL_THREADS.isSupported(), "Virtual threads require Java 21");
+    }
+
+    @Override
+    Server createServer(int portNumber) {
+        Server server = new Server(portNumber);
+        server.setConnectionMode(Server.ConnectionMode.VIRTUAL_THREADS);
+        return server;
+    }
+}